@@ -0,0 +1,91 @@
+package benchmarks;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ij.ImagePlus;
+
+// measures the pattern generators of Bildgenerator_ on square images of different sizes
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class GeneratorBenchmark {
+
+	// edge length of the image
+	@Param({ "512", "1024", "2048", "4096", "8192" })
+	public int size;
+
+	// number of threads of the pixel engine
+	@Param({ "1", "2", "4", "8" })
+	public int threads;
+
+	private Object generator;
+	private Method makeGradientGreyscaleImage, makeGradientRedGreenImage, makeGradientRedGreenYellowImage,
+			makeJapaneseFlag, makeJapaneseSmoothFlag, makeChessboardImage;
+
+	@Setup
+	public void setup() {
+		Plugins.setThreads(threads);
+		generator = Plugins.create("Bildgenerator_");
+		makeGradientGreyscaleImage = generatorMethod("makeGradientGreyscaleImage");
+		makeGradientRedGreenImage = generatorMethod("makeGradientRedGreenImage");
+		makeGradientRedGreenYellowImage = generatorMethod("makeGradientRedGreenYellowImage");
+		makeJapaneseFlag = generatorMethod("makeJapaneseFlag");
+		makeJapaneseSmoothFlag = Plugins.method("Bildgenerator_", "makeJapaneseSmoothFlag",
+				int.class, int.class, double.class);
+		makeChessboardImage = generatorMethod("makeChessboardImage");
+	}
+
+	private static Method generatorMethod(String name) {
+		return Plugins.method("Bildgenerator_", name, int.class, int.class);
+	}
+
+	private ImagePlus make(Method method) {
+		return (ImagePlus) Plugins.call(method, generator, size, size);
+	}
+
+	@Benchmark
+	public ImagePlus makeGradientGreyscaleImage() {
+		return make(makeGradientGreyscaleImage);
+	}
+
+	@Benchmark
+	public ImagePlus makeGradientRedGreenImage() {
+		return make(makeGradientRedGreenImage);
+	}
+
+	@Benchmark
+	public ImagePlus makeGradientRedGreenYellowImage() {
+		return make(makeGradientRedGreenYellowImage);
+	}
+
+	@Benchmark
+	public ImagePlus makeJapaneseFlag() {
+		return make(makeJapaneseFlag);
+	}
+
+	@Benchmark
+	public ImagePlus makeJapaneseSmoothFlag() {
+		return (ImagePlus) Plugins.call(makeJapaneseSmoothFlag, generator, size, size, 0.8);
+	}
+
+	@Benchmark
+	public ImagePlus makeChessboardImage() {
+		return make(makeChessboardImage);
+	}
+}
@@ -0,0 +1,76 @@
+package benchmarks;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+// the plugins live in the default package, which cannot be imported from a
+// named package (and JMH insists on one), so the benchmarks reach them via
+// reflection. the call overhead is negligible compared to the image operations.
+final class Plugins {
+
+	private Plugins() {
+	}
+
+	// a class of the plugins
+	static Class<?> type(String className) {
+		try {
+			return Class.forName(className);
+		} catch (ClassNotFoundException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	// a method of a plugin class, also if it is only package visible
+	static Method method(String className, String name, Class<?>... parameterTypes) {
+		try {
+			Method method = type(className).getDeclaredMethod(name, parameterTypes);
+			method.setAccessible(true);
+			return method;
+		} catch (NoSuchMethodException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	// create an instance of a plugin class
+	static Object create(String className, Class<?>[] parameterTypes, Object... arguments) {
+		try {
+			Constructor<?> constructor = type(className).getDeclaredConstructor(parameterTypes);
+			constructor.setAccessible(true);
+			return constructor.newInstance(arguments);
+		} catch (InvocationTargetException e) {
+			throw new IllegalStateException(e.getCause());
+		} catch (ReflectiveOperationException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	static Object create(String className) {
+		return create(className, new Class<?>[0]);
+	}
+
+	// call a method, passing on any exception it throws
+	static Object call(Method method, Object target, Object... arguments) {
+		try {
+			return method.invoke(target, arguments);
+		} catch (InvocationTargetException e) {
+			throw new IllegalStateException(e.getCause());
+		} catch (IllegalAccessException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	// use the vectorized or the scalar windowing kernel
+	static void setVectorized(boolean vectorized) {
+		call(method("WindowingKernels", "setVectorized", boolean.class), null, vectorized);
+		if (vectorized != (Boolean) call(method("WindowingKernels", "isVectorized"), null)) {
+			throw new IllegalStateException("The vectorized kernel is not available");
+		}
+	}
+
+	// configure the number of threads of the pixel engine, 1 means single threaded
+	static void setThreads(int threads) {
+		call(method("PixelEngine", "setSingleThreaded", boolean.class), null, threads == 1);
+		call(method("PixelEngine", "setThreads", int.class), null, threads);
+	}
+}
@@ -0,0 +1,110 @@
+package benchmarks;
+
+import java.lang.reflect.Method;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ij.ImagePlus;
+import ij.gui.NewImage;
+import ij.process.ImageProcessor;
+import ij.process.ShortProcessor;
+
+// measures the hot loops of Display16BitAsRGB_ on square images of different sizes
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class WindowingBenchmark {
+
+	// edge length of the image
+	@Param({ "512", "1024", "2048", "4096", "8192" })
+	public int size;
+
+	// number of threads of the pixel engine
+	@Param({ "1", "2", "4", "8" })
+	public int threads;
+
+	// windowing kernel, "vector" needs the vector profile and the incubator module (see README.txt)
+	@Param({ "scalar" })
+	public String kernel;
+
+	private Object plugin, settings, otherSettings, clippingSettings;
+	private Method calculateOutputImage, findMinMaxPixelValue;
+	private boolean toggle;
+
+	@Setup
+	public void setup() {
+		Plugins.setThreads(threads);
+		Plugins.setVectorized(kernel.equals("vector"));
+
+		// 12 bit noise, as in a typical CT image
+		short[] pixels = new short[size*size];
+		Random random = new Random(42);
+		for (int index = 0; index < pixels.length; index++) {
+			pixels[index] = (short) random.nextInt(4096);
+		}
+		ShortProcessor input = new ShortProcessor(size, size, pixels, null);
+		ImagePlus output = NewImage.createRGBImage("Output Image", size, size, 1, 0);
+
+		plugin = Plugins.create("Display16BitAsRGB_");
+		Plugins.call(Plugins.method("Display16BitAsRGB_", "setImages", ImageProcessor.class, ImagePlus.class),
+				plugin, input, output);
+		findMinMaxPixelValue = Plugins.method("Display16BitAsRGB_", "findMinMaxPixelValue");
+		Plugins.call(findMinMaxPixelValue, plugin);
+		Plugins.call(Plugins.method("Display16BitAsRGB_", "calculateAutoWindow"), plugin);
+
+		// the automatic window, and a slightly shifted one with clipping colors
+		Class<?> settingsType = Plugins.type("WindowSettings");
+		calculateOutputImage = Plugins.method("Display16BitAsRGB_", "calculateOutputImage", settingsType);
+		settings = Plugins.call(Plugins.method("Display16BitAsRGB_", "getSettings"), plugin);
+		Class<?>[] types = { int.class, int.class, boolean.class, boolean.class, boolean.class };
+		otherSettings = Plugins.create("WindowSettings", types, field(settings, "center") + 1,
+				field(settings, "width"), false, true, true);
+
+		// the automatic window with low clipping colors, which only changes the rows with clipped pixels
+		clippingSettings = Plugins.create("WindowSettings", types, field(settings, "center"),
+				field(settings, "width"), false, true, false);
+	}
+
+	private static int field(Object object, String name) {
+		try {
+			return object.getClass().getField(name).getInt(object);
+		} catch (ReflectiveOperationException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	// render with changed settings every time, like while dragging a slider
+	@Benchmark
+	public void calculateOutputImage() {
+		toggle = !toggle;
+		Plugins.call(calculateOutputImage, plugin, toggle ? settings : otherSettings);
+	}
+
+	// switch the low clipping color on and off, only rows with clipped pixels are rendered again
+	@Benchmark
+	public void calculateOutputImageTogglingClipping() {
+		toggle = !toggle;
+		Plugins.call(calculateOutputImage, plugin, toggle ? settings : clippingSettings);
+	}
+
+	@Benchmark
+	public int findMinMaxPixelValue() {
+		Plugins.call(findMinMaxPixelValue, plugin);
+		return field(plugin, "max_value");
+	}
+}
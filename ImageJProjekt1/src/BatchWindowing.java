@@ -0,0 +1,371 @@
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import ij.IJ;
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.io.FileSaver;
+
+// converts many 16 bit images to windowed RGB images without any user interface.
+// reading, windowing and writing run in separate stages that overlap: while one
+// image is written, the next ones are windowed and read. the stages are connected
+// by bounded queues, so only a few images are held in memory at any time.
+public class BatchWindowing {
+
+	// an image on its way through the pipeline
+	private static class Job {
+		final File file;
+		ImagePlus image;
+
+		Job(File file) {
+			this.file = file;
+		}
+	}
+
+	// tells a thread of the next stage that there is no more input
+	private static final Job END = new Job(null);
+
+	// throughput of a finished batch
+	public static class Report {
+		public final int images, failed;
+		public final long bytes, nanos;
+		public final long readNanos, windowNanos, writeNanos;
+
+		Report(int images, int failed, long bytes, long nanos, long readNanos, long windowNanos, long writeNanos) {
+			this.images = images;
+			this.failed = failed;
+			this.bytes = bytes;
+			this.nanos = nanos;
+			this.readNanos = readNanos;
+			this.windowNanos = windowNanos;
+			this.writeNanos = writeNanos;
+		}
+
+		public double getSeconds() {
+			return nanos / 1e9;
+		}
+
+		public double getImagesPerSecond() {
+			return images / Math.max(getSeconds(), 1e-9);
+		}
+
+		// megabytes of 16 bit input pixels per second
+		public double getMegabytesPerSecond() {
+			return bytes / (1024.0*1024.0) / Math.max(getSeconds(), 1e-9);
+		}
+
+		@Override
+		public String toString() {
+			return images+" images ("+failed+" failed) in "+IJ.d2s(getSeconds(), 2)+" s: "
+					+IJ.d2s(getImagesPerSecond(), 1)+" images/s, "+IJ.d2s(getMegabytesPerSecond(), 1)+" MB/s; "
+					+"busy time read "+IJ.d2s(readNanos/1e9, 2)+" s, window "+IJ.d2s(windowNanos/1e9, 2)
+					+" s, write "+IJ.d2s(writeNanos/1e9, 2)+" s";
+		}
+	}
+
+	// a stage of the pipeline: some threads that take jobs from one queue, process
+	// them and put them into the queue of the next stage. the last thread to finish
+	// tells every thread of the next stage that the input has ended.
+	private abstract class Stage {
+		final String name;
+		final int threads;
+		final BlockingQueue<Job> in;
+		BlockingQueue<Job> out;
+		int nextThreads;
+		final AtomicInteger running;
+		final AtomicLong busyNanos = new AtomicLong();
+
+		Stage(String name, int threads, BlockingQueue<Job> in) {
+			this.name = name;
+			this.threads = threads;
+			this.in = in;
+			this.running = new AtomicInteger(threads);
+		}
+
+		// send the processed jobs to the given stage
+		void connect(Stage next) {
+			out = next.in;
+			nextThreads = next.threads;
+		}
+
+		// process one job, returns false if it has to be dropped
+		abstract boolean process(Job job) throws Exception;
+
+		void start(List<Thread> all) {
+			for (int i = 0; i < threads; i++) {
+				Thread thread = new Thread(new Runnable() {
+					@Override
+					public void run() {
+						loop();
+					}
+				}, "BatchWindowing "+name+" "+(i+1));
+				all.add(thread);
+				thread.start();
+			}
+		}
+
+		private void loop() {
+			try {
+				while (true) {
+					Job job = in.take();
+					if (job == END) {
+						break;
+					}
+					long start = System.nanoTime();
+					boolean ok;
+					try {
+						ok = process(job);
+					} catch (Exception e) {
+						fail(job, e.toString());
+						ok = false;
+					} catch (OutOfMemoryError e) {
+						job.image = null;
+						fail(job, "out of memory, reduce the number of workers or the queue size");
+						ok = false;
+					}
+					busyNanos.addAndGet(System.nanoTime() - start);
+					if (ok && out != null) {
+						out.put(job);
+					}
+				}
+			} catch (InterruptedException e) {
+				// cancelled, the other threads are interrupted as well
+				return;
+			} finally {
+				if (running.decrementAndGet() == 0 && out != null) {
+					try {
+						for (int i = 0; i < nextThreads; i++) {
+							out.put(END);
+						}
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+				}
+			}
+		}
+	}
+
+	// the window for all images, or null to take it from each image's histogram
+	private WindowSettings settings;
+
+	// percentiles and display options for the automatic window
+	private double lowPercentile = 0.5, highPercentile = 99.5;
+	private boolean inverted, showLoClipping, showHiClipping;
+
+	// colors of the automatic window
+	private ColorMap colorMap = ColorMap.GRAY;
+
+	// threads per stage, and the number of images that may wait between two stages. encoding
+	// (e.g. png compression) usually takes longer than windowing, so it gets as many threads.
+	private int readers = 1, workers = Runtime.getRuntime().availableProcessors(), writers = workers;
+	private int queueSize = 4;
+
+	// where and how the output is written: "png", "tif" or "jpg"
+	private final File outputDirectory;
+	private String format = "png";
+
+	// results
+	private final AtomicInteger images = new AtomicInteger(), failed = new AtomicInteger();
+	private final AtomicLong bytes = new AtomicLong();
+
+	// every windowing thread keeps its own table, so they never wait for each other
+	private final ThreadLocal<WindowingTable> tables = new ThreadLocal<WindowingTable>() {
+		@Override
+		protected WindowingTable initialValue() {
+			return new WindowingTable();
+		}
+	};
+
+	public BatchWindowing(File outputDirectory) {
+		this.outputDirectory = outputDirectory;
+	}
+
+	// use the same window for all images
+	public void setWindow(WindowSettings settings) {
+		this.settings = settings;
+	}
+
+	// the colors of the gray values within the window, for the automatic window and a fixed one
+	public void setColorMap(ColorMap colorMap) {
+		this.colorMap = colorMap;
+		if (settings != null) {
+			settings = settings.withColorMap(colorMap);
+		}
+	}
+
+	// find the window of every image from the given percentiles (0..100) of its pixel values,
+	// clamped to 0..100 and swapped if the lower one is the larger
+	public void setAutoWindow(double lowPercentile, double highPercentile, boolean inverted, boolean showLoClipping, boolean showHiClipping) {
+		this.settings = null;
+		this.lowPercentile = WindowSettings.lowerPercentile(lowPercentile, highPercentile);
+		this.highPercentile = WindowSettings.upperPercentile(lowPercentile, highPercentile);
+		this.inverted = inverted;
+		this.showLoClipping = showLoClipping;
+		this.showHiClipping = showHiClipping;
+	}
+
+	// number of threads that read, window and write images
+	public void setThreads(int readers, int workers, int writers) {
+		this.readers = Math.max(1, readers);
+		this.workers = Math.max(1, workers);
+		this.writers = Math.max(1, writers);
+	}
+
+	// number of images that may wait between two stages
+	public void setQueueSize(int queueSize) {
+		this.queueSize = Math.max(1, queueSize);
+	}
+
+	// "png", "tif" or "jpg"; stacks are always written as tiff
+	public void setFormat(String format) {
+		this.format = format.toLowerCase();
+	}
+
+	// convert all files, returns when the last one is written. files that can't
+	// be read, are not 16 bit or can't be written are reported and skipped.
+	public Report run(List<File> files) throws InterruptedException {
+		images.set(0);
+		failed.set(0);
+		bytes.set(0);
+		outputDirectory.mkdirs();
+
+		// the list of files is the (unbounded) input of the first stage
+		BlockingQueue<Job> input = new LinkedBlockingQueue<Job>();
+		for (File file : files) {
+			input.add(new Job(file));
+		}
+		for (int i = 0; i < readers; i++) {
+			input.add(END);
+		}
+
+		Stage read = new Stage("read", readers, input) {
+			@Override
+			boolean process(Job job) {
+				return read(job);
+			}
+		};
+		Stage window = new Stage("window", workers, new ArrayBlockingQueue<Job>(queueSize)) {
+			@Override
+			boolean process(Job job) {
+				return window(job);
+			}
+		};
+		Stage write = new Stage("write", writers, new ArrayBlockingQueue<Job>(queueSize)) {
+			@Override
+			boolean process(Job job) {
+				return write(job);
+			}
+		};
+		read.connect(window);
+		window.connect(write);
+
+		long start = System.nanoTime();
+		List<Thread> threads = new ArrayList<Thread>();
+		write.start(threads);
+		window.start(threads);
+		read.start(threads);
+		try {
+			for (Thread thread : threads) {
+				thread.join();
+			}
+		} catch (InterruptedException e) {
+			for (Thread thread : threads) {
+				thread.interrupt();
+			}
+			throw e;
+		}
+		return new Report(images.get(), failed.get(), bytes.get(), System.nanoTime() - start,
+				read.busyNanos.get(), window.busyNanos.get(), write.busyNanos.get());
+	}
+
+	// decode the file
+	private boolean read(Job job) {
+		ImagePlus image = IJ.openImage(job.file.getPath());
+		if (image == null) {
+			return fail(job, "can't be opened");
+		}
+		if (image.getBitDepth() != 16) {
+			return fail(job, "not a 16 bit image");
+		}
+		job.image = image;
+		return true;
+	}
+
+	// replace the 16 bit image by its windowed RGB version, slice by slice
+	private boolean window(Job job) {
+		ImagePlus input = job.image;
+		ImageStack stack = input.getStack();
+		int width = stack.getWidth();
+		int height = stack.getHeight();
+
+		WindowSettings settings = this.settings;
+		if (settings == null) {
+			Histogram16 histogram = stack.getSize() > 1 ? Histogram16.of(stack)
+					: Histogram16.of((short[]) stack.getPixels(1), width, height);
+			settings = WindowSettings.fromPercentiles(histogram, lowPercentile, highPercentile,
+					inverted, showLoClipping, showHiClipping).withColorMap(colorMap);
+		}
+		WindowingTable table = tables.get();
+		table.update(settings);
+
+		ImageStack output = new ImageStack(width, height);
+		for (int slice = 1; slice <= stack.getSize(); slice++) {
+			int[] pixels = new int[width*height];
+			table.apply((short[]) stack.getPixels(slice), pixels);
+			output.addSlice(stack.getSliceLabel(slice), pixels);
+		}
+		job.image = new ImagePlus(input.getShortTitle(), output);
+		bytes.addAndGet(2L*width*height*stack.getSize());
+		return true;
+	}
+
+	// encode and write the RGB image
+	private boolean write(Job job) {
+		ImagePlus image = job.image;
+		job.image = null;
+		boolean stack = image.getStackSize() > 1;
+		String extension = stack || format.startsWith("tif") ? "tif" : format;
+		String path = new File(outputDirectory, baseName(job.file)+"."+extension).getPath();
+		FileSaver saver = new FileSaver(image);
+		boolean ok;
+		if (stack) {
+			ok = saver.saveAsTiffStack(path);
+		}
+		else if (extension.equals("tif")) {
+			ok = saver.saveAsTiff(path);
+		}
+		else if (extension.equals("png")) {
+			ok = saver.saveAsPng(path);
+		}
+		else if (extension.equals("jpg") || extension.equals("jpeg")) {
+			ok = saver.saveAsJpeg(path);
+		}
+		else {
+			return fail(job, "unknown format "+format);
+		}
+		if (!ok) {
+			return fail(job, "can't be written to "+path);
+		}
+		images.incrementAndGet();
+		return true;
+	}
+
+	// file name without its extension
+	private static String baseName(File file) {
+		String name = file.getName();
+		int dot = name.lastIndexOf('.');
+		return dot > 0 ? name.substring(0, dot) : name;
+	}
+
+	private boolean fail(Job job, String reason) {
+		failed.incrementAndGet();
+		IJ.log(job.file.getPath()+": "+reason);
+		return false;
+	}
+}
@@ -1,13 +1,16 @@
 import ij.IJ;
 import ij.ImagePlus;
-import ij.gui.NewImage;
+import ij.gui.GenericDialog;
+import ij.io.SaveDialog;
 import ij.plugin.PlugIn;
-import ij.process.ImageProcessor;
 
 import java.awt.Container;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
-import java.util.Vector;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
+import java.io.File;
+import java.io.IOException;
 
 import javax.swing.Box;
 import javax.swing.BoxLayout;
@@ -25,302 +28,241 @@ public class Bildgenerator_ implements PlugIn, ActionListener {
 
 	// choices to be displayed in the combo box
 	private String[] choices = { "Schwarz-Weiss-Verlauf", "Rot-Grün-Verlauf", "Rot-Grün-Gelb-Verlauf", 
-			"Japanische Flagge (nur Breite)", "geglättete japanische Flagge (nur Breite)", "Schachbrett (nur Breite)", "..." };
+			"Japanische Flagge (nur Breite)", "geglättete japanische Flagge (nur Breite)", "Schachbrett (nur Breite)", "Formel..." };
 
-	// array of already generated images
-	private Vector<ImagePlus> images;
+	// titles of the generated images, for each choice
+	private String[] titles = { "Schwarz-Weiss-Verlauf", "Rot-Grün-Verlauf", "Rot-Grün-Gelb-Verlauf",
+			"Japanische Flagge", "Japanische Flagge", "Schachbrettmuster", "Formel" };
+
+	// the choice whose pattern is described by a formula, see PatternScript
+	private static final int FORMULA = 6;
+
+	// the formula of the last pattern of that choice
+	public String formula = "blend(gradient(0), checker(8, 8), 0.25)";
+
+	// memory for already generated images, in megabytes
+	public int cacheMegabytes = 256;
+
+	// already generated images, by pattern
+	private GeneratorCache cache;
 
 	// dialog UI elements
 	private JDialog dialog;
 	private JSlider slider_width, slider_height;
 	private JComboBox selection;
-	private JButton action_button;
+	private JButton action_button, file_button;
 
 	// initialization of the plugin
 	@Override
 	public void run(String arg) {
 
-		// start with empty list of generated images
-		images = new Vector<ImagePlus>();
+		// start with empty cache of generated images
+		cache = new GeneratorCache(cacheMegabytes*1024L*1024L);
 
-		// create and show control dialog
+		// create and show control dialog, forget the images when it is closed
 		dialog = makeDialog();
+		dialog.addWindowListener(new WindowAdapter() {
+			@Override
+			public void windowClosing(WindowEvent e) {
+				cache.dispose();
+			}
+		});
 		dialog.setVisible(true);
 
 	}
 
-	// action listener for the action button
+	// action listener for the action buttons
 	@Override
 	public void actionPerformed(ActionEvent ev) {
 
+		// images too large for the memory go straight into a file
+		if (ev.getSource() == file_button) {
+			writeToFile();
+			return;
+		}
+
 		// read out the parameters of the image to be generated
 		int width = slider_width.getValue();
 		int height = slider_height.getValue();
 		int choice = selection.getSelectedIndex();
-		ImagePlus img;
+		if (choice == FORMULA && !askFormula()) {
+			return;
+		}
+
+		// the pattern for the user's choice
+		GeneratorPattern pattern;
+		try {
+			pattern = makePattern(choice, width, height);
+		} catch (IllegalArgumentException e) {
+			IJ.error("Bildgenerator", e.getMessage());
+			return;
+		}
+		if (pattern == null) {
+			IJ.error("Sorry, operation not implemented (yet).");
+			return;
+		}
+		if (!checkSize(pattern, "Bildgenerator")) {
+			return;
+		}
+
+		// generate it, unless the same image has been generated before and is still open
+		ImagePlus img = cache.get(titles[choice], pattern);
 
-		// call the corresponding method, depending on the user's choice
+		// show the image, or bring it to the front
+		if (img.getWindow() != null) {
+			img.getWindow().toFront();
+		}
+		else {
+			img.show();
+			img.updateAndDraw();
+		}
+		IJ.showStatus(cache.toString());
+	}
+
+	// ask for the formula of the pattern, false if canceled
+	private boolean askFormula() {
+		GenericDialog gd = new GenericDialog("Formel");
+		gd.addTextAreas(formula, null, 4, 50);
+		gd.addMessage("x, y, gradient(Winkel), radial(cx, cy, r), circle(cx, cy, r), rect(x0, y0, x1, y1),\n"
+				+"checker(nx, ny), noise(Startwert), blend(a, b, t), min(a, b), max(a, b), rgb(r, g, b), + - * /");
+		gd.showDialog();
+		if (gd.wasCanceled()) {
+			return false;
+		}
+		formula = gd.getNextText();
+		return true;
+	}
+
+	// the pattern for a choice of the combo box, null if there is none (yet).
+	// throws IllegalArgumentException if the formula of a formula pattern is malformed.
+	public GeneratorPattern makePattern(int choice, int width, int height) {
 		switch (choice) {
 		case 0:
-			img = makeGradientGreyscaleImage(width, height);
-			break;
+			return new GeneratorPatterns.GradientGreyscale(width, height);
 		case 1:
-			img = makeGradientRedGreenImage(width, height);
-			break;
+			return new GeneratorPatterns.GradientRedGreen(width, height);
 		case 2:
-			img = makeGradientRedGreenYellowImage(width, height);
-			break;
+			return new GeneratorPatterns.GradientRedGreenYellow(width, height);
 		case 3:
-			// correct japanese flag is 3/2, so width will be used, height
-			// (smaller) will be calculated
-			double correctHeight = (double) width / 3 * 2;
-			img = makeJapaneseFlag(width, (int) correctHeight);
-			break;
+			// correct japanese flag is 3/2, so height is calculated from width
+			return new GeneratorPatterns.JapaneseFlag(width, (int) ((double) width / 3 * 2));
 		case 4:
-			double correctHeight2 = (double) width / 3 * 2;
-			// make flag with 0.8/radius smoothing clearance
-			img = makeJapaneseSmoothFlag(width, (int) correctHeight2, 0.8);
-			break;
+			return new GeneratorPatterns.JapaneseSmoothFlag(width, (int) ((double) width / 3 * 2), 0.8);
 		case 5:
-			// Chessboard is square, so only width is used;
-			img = makeChessboardImage (width, width);
-			break;
+			return new GeneratorPatterns.Chessboard(width, width);
+		case FORMULA:
+			return new PatternScript(formula, width, height);
 		default:
-			IJ.error("Sorry, operation not implemented (yet).");
-			return;
+			return null;
 		}
+	}
 
-		// show the newly generated image
-		img.show();
-		img.updateAndDraw();
+	// false, with a message, if the pattern has no pixels, e.g. a flag only 1 pixel wide,
+	// whose height of 2/3 of the width is 0
+	private boolean checkSize(GeneratorPattern pattern, String title) {
+		if (pattern.getWidth() < 1 || pattern.getHeight() < 1) {
+			IJ.error(title, "Ein Bild von "+pattern.getWidth()+"x"+pattern.getHeight()+" Pixeln ist leer.");
+			return false;
+		}
+		return true;
+	}
 
-		// remember generated image in an array
-		images.add(img);
+	// write the selected pattern in a size of up to 2^31-1 x 2^31-1 pixels to a raw or tiff
+	// file. it is computed band by band while it is written, so it may be larger than the memory.
+	private void writeToFile() {
+		final int choice = selection.getSelectedIndex();
+		if (choice == FORMULA && !askFormula()) {
+			return;
+		}
+		GenericDialog gd = new GenericDialog("Bild in Datei schreiben");
+		gd.addNumericField("Bildbreite (pix):", slider_width.getValue(), 0);
+		gd.addNumericField("Bildh\u00f6he (pix):", slider_height.getValue(), 0);
+		gd.addChoice("Format:", new String[] { "TIFF", "Raw" }, "TIFF");
+		gd.showDialog();
+		if (gd.wasCanceled()) {
+			return;
+		}
+		double width = gd.getNextNumber();
+		double height = gd.getNextNumber();
+		final boolean tiff = gd.getNextChoiceIndex() == 0;
+		if (gd.invalidNumber() || !(width >= 1 && width <= Integer.MAX_VALUE && height >= 1 && height <= Integer.MAX_VALUE)) {
+			IJ.error("Bild in Datei schreiben", "Breite und H\u00f6he m\u00fcssen zwischen 1 und "+Integer.MAX_VALUE+" Pixeln liegen.");
+			return;
+		}
+		final GeneratorPattern pattern;
+		try {
+			pattern = makePattern(choice, (int) width, (int) height);
+		} catch (IllegalArgumentException e) {
+			IJ.error("Bild in Datei schreiben", e.getMessage());
+			return;
+		}
+		if (pattern == null) {
+			IJ.error("Sorry, operation not implemented (yet).");
+			return;
+		}
+		if (!checkSize(pattern, "Bild in Datei schreiben")) {
+			return;
+		}
+		SaveDialog sd = new SaveDialog("Bild in Datei schreiben", choices[choice], tiff ? ".tif" : ".raw");
+		if (sd.getFileName() == null) {
+			return;
+		}
+		final File file = new File(sd.getDirectory(), sd.getFileName());
+
+		// don't block the dialog while writing
+		new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					if (tiff) {
+						PatternWriter.writeTiff(pattern, file);
+					}
+					else {
+						PatternWriter.writeRaw(pattern, file);
+					}
+					IJ.showStatus(file.getName()+" written");
+				} catch (IOException e) {
+					IJ.error("Bild in Datei schreiben", e.getMessage());
+				}
+			}
+		}, "Bildgenerator file writer").start();
 	}
 
 	// make an 8 bit grayscale image with a horizontal gradient
 	public ImagePlus makeGradientGreyscaleImage(int width, int height) {
-
-		// 8 bit grayscale image
-		ImagePlus img = NewImage.createByteImage("Schwarz-Weiss-Verlauf",
-				width, height, 1, NewImage.FILL_BLACK);
-		ImageProcessor proc = img.getProcessor();
-		byte[] pixels = (byte[]) proc.getPixels();
-
-		// loop over all columns
-		for (int i = 0; i < width; i++) {
-
-			// calculate interpolated value between black and white
-			double interpol = i / (double) (width - 1);
-			byte value = (byte) (0 * (1 - interpol) + 255 * interpol);
-
-			// set all pixels in this column
-			for (int j = 0; j < height; j++) {
-
-				// pixel position
-				int index = j * width + i;
-
-				// write new pixel
-				pixels[index] = value;
-			}
-		}
-		return img;
+		return GeneratorEngine.createImage("Schwarz-Weiss-Verlauf",
+				new GeneratorPatterns.GradientGreyscale(width, height));
 	}
 
+	// make an RGB image with a horizontal gradient from red to green
 	public ImagePlus makeGradientRedGreenImage(int width, int height) {
-		ImagePlus img = NewImage.createRGBImage("Rot-Grün-Verlauf", width,
-				height, 1, NewImage.FILL_BLACK);
-		ImageProcessor proc = img.getProcessor();
-		int[] pixels = (int[]) proc.getPixels();
-
-		// loop over all columns
-		for (int i = 0; i < width; i++) {
-
-			// calculate interpolated gradient value
-			double interpol = i / (double) (width - 1);
-			int value = (int) (0 * (1 - interpol) + 255 * interpol);
-
-			// set all pixels in this column
-			for (int j = 0; j < height; j++) {
-
-				// pixel position
-				int index = j * width + i;
-
-				// write new RGB pixel
-				int red = (int) (pixels[index] & 0xff0000) >> 16;
-				int green = (int) (pixels[index] & 0x00ff00) >> 8;
-				int blue = (int) (pixels[index] & 0x0000ff);
-				red = 255 - value;
-				green = value;
-				blue = 0;
-				pixels[index] = ((red & 0xff) << 16) + ((green & 0xff) << 8)
-						+ (blue & 0xff);
-			}
-		}
-		return img;
+		return GeneratorEngine.createImage("Rot-Grün-Verlauf",
+				new GeneratorPatterns.GradientRedGreen(width, height));
 	}
 
+	// make an RGB image with a red-green gradient to the right and a gradient to green downwards
 	public ImagePlus makeGradientRedGreenYellowImage(int width, int height) {
-		ImagePlus img = NewImage.createRGBImage("Rot-Grün-Gelb-Verlauf", width,
-				height, 1, NewImage.FILL_BLACK);
-		ImageProcessor proc = img.getProcessor();
-		int[] pixels = (int[]) proc.getPixels();
-
-		// loop over all columns
-		for (int i = 0; i < width; i++) {
-
-			// calculate first interpolated gradient value
-			double interpolX = i / (double) (width - 1);
-			
-
-			// set all pixels in this column
-			for (int j = 0; j < height; j++) {
-
-				// second interpolated gradient value
-				double interpolY = j / (double) (height - 1);
-
-				// pixel position
-				int index = j * width + i;
-
-				// write new RGB pixel
-				int red = (int) (pixels[index] & 0xff0000) >> 16;
-				int green = (int) (pixels[index] & 0x00ff00) >> 8;
-				int blue = (int) (pixels[index] & 0x0000ff);
-				
-				// calculate the average from both values
-				double red1 = (1-interpolX)*255;
-				double green1 = interpolX*255;
-				double green2 = interpolY*255;
-				red = (int) ((red1+255)/2);
-				green = (int) ((green1+green2)/2);
-				blue = 0;
-				pixels[index] = ((red & 0xff) << 16) + ((green & 0xff) << 8)
-						+ (blue & 0xff);
-			}
-		}
-		return img;
+		return GeneratorEngine.createImage("Rot-Grün-Gelb-Verlauf",
+				new GeneratorPatterns.GradientRedGreenYellow(width, height));
 	}
 	
+	// make an RGB image with a red circle on white ground
 	public ImagePlus makeJapaneseFlag(int width, int height) {
-		ImagePlus img = NewImage.createRGBImage("Japanische Flagge", width,
-				height, 1, NewImage.FILL_WHITE);
-		ImageProcessor proc = img.getProcessor();
-		int[] pixels = (int[]) proc.getPixels();
-
-		// loop over all columns
-		for (int i = 0; i < width; i++) {
-
-			// set all pixels in this column
-			for (int j = 0; j < height; j++) {
-
-				// pixel position
-				int index = j * width + i;
-
-				// compare pixel position with center + radius of "sun",
-				// distance via pythagoras
-				double centerx = 0.5 * (double) width;
-				double centery = 0.5 * (double) height;
-				double radius = 0.3 * (double) height;
-				int centeri = (int) centerx;
-				int centerj = (int) centery;
-				double a = centeri - i;
-				double b = centerj - j;
-				double distance = Math.sqrt(a * a + b * b);
-				// if (i > (centeri - radius) && i < (centeri + radius)
-				// && j > (centerj - radius) && j < (centerj + radius)) {
-				if (distance <= radius) {
-					// write new RGB pixel
-					int red = (int) (pixels[index] & 0xff0000) >> 16;
-					int green = (int) (pixels[index] & 0x00ff00) >> 8;
-					int blue = (int) (pixels[index] & 0x0000ff);
-					red = 255;
-					green = 0;
-					blue = 0;
-					pixels[index] = ((red & 0xff) << 16)
-							+ ((green & 0xff) << 8) + (blue & 0xff);
-				}
-			}
-		}
-		return img;
+		return GeneratorEngine.createImage("Japanische Flagge",
+				new GeneratorPatterns.JapaneseFlag(width, height));
 	}
 
+	// same, but the circle fades out to white beyond the relative radius smoothingStart
 	public ImagePlus makeJapaneseSmoothFlag(int width, int height,
 			double smoothingStart) {
-		ImagePlus img = NewImage.createRGBImage("Japanische Flagge", width,
-				height, 1, NewImage.FILL_WHITE);
-		ImageProcessor proc = img.getProcessor();
-		int[] pixels = (int[]) proc.getPixels();
-
-		// loop over all columns
-		for (int i = 0; i < width; i++) {
-
-			// set all pixels in this column
-			for (int j = 0; j < height; j++) {
-
-				// pixel position
-				int index = j * width + i;
-
-				// compare pixel position with center + radius of "sun",
-				// distance via pythagoras
-				double centerx = 0.5 * (double) width;
-				double centery = 0.5 * (double) height;
-				double radius = 0.3 * (double) height;
-				int centeri = (int) centerx;
-				int centerj = (int) centery;
-				double a = centeri - i;
-				double b = centerj - j;
-				double distance = Math.sqrt(a * a + b * b);
-				if (distance <= radius) {
-					// set distance for start of smoothing
-					double relativeDistance = distance / radius;
-					int red = (int) (pixels[index] & 0xff0000) >> 16;
-					int green = (int) (pixels[index] & 0x00ff00) >> 8;
-					int blue = (int) (pixels[index] & 0x0000ff);
-					red = 255;
-					// fade-out to white when smoothingStart is crossed
-					if (relativeDistance > smoothingStart) {
-						double value = (relativeDistance - smoothingStart)
-								/ (1 - smoothingStart) * 255;
-						green = (int) value;
-						blue = (int) value;
-					} else {
-						green = 0;
-						blue = 0;
-					}
-					pixels[index] = ((red & 0xff) << 16)
-							+ ((green & 0xff) << 8) + (blue & 0xff);
-				}
-			}
-		}
-		return img;
+		return GeneratorEngine.createImage("Japanische Flagge",
+				new GeneratorPatterns.JapaneseSmoothFlag(width, height, smoothingStart));
 	}
 
+	// make an 8 bit grayscale image with 8x8 black and white fields
 	public ImagePlus makeChessboardImage(int width, int height) {
-
-		// 8 bit grayscale image
-		ImagePlus img = NewImage.createByteImage("Schachbrettmuster",
-				width, height, 1, NewImage.FILL_BLACK);
-		ImageProcessor proc = img.getProcessor();
-		byte[] pixels = (byte[]) proc.getPixels();
-
-		// loop over all columns
-		for (int i = 0; i < width; i++) {
-
-			// set all pixels in this column
-			for (int j = 0; j < height; j++) {
-				// calculate the "field number" within the respective row or column
-				double relFieldX = i/(double)width*8;
-				double relFieldY = j/(double)height*8;
-				// pixel position
-				int index = j * width + i;
-				// fill the field with white if row number is even and column number is odd or vice versa
-				if (((int)relFieldX % 2 == 0 && (int)relFieldY % 2 == 1) || ((int)relFieldX % 2 == 1) && ((int)relFieldY % 2 == 0)) {
-					int value = 255;
-					pixels[index] = (byte) value;
-				}
-			}
-		}
-		return img;
+		return GeneratorEngine.createImage("Schachbrettmuster",
+				new GeneratorPatterns.Chessboard(width, height));
 	}
 
 	
@@ -348,6 +290,8 @@ public class Bildgenerator_ implements PlugIn, ActionListener {
 		selection = new JComboBox(choices);
 		action_button = new JButton("Bild generieren");
 		action_button.addActionListener(this);
+		file_button = new JButton("In Datei schreiben...");
+		file_button.addActionListener(this);
 
 		// layout: multiple horizontal boxes nexted in one vertical box
 		BoxLayout rows = new BoxLayout(panel, BoxLayout.Y_AXIS);
@@ -369,6 +313,7 @@ public class Bildgenerator_ implements PlugIn, ActionListener {
 		row.setLayout(new BoxLayout(row, BoxLayout.X_AXIS));
 		row.add(selection);
 		row.add(action_button);
+		row.add(file_button);
 		row.add(Box.createHorizontalGlue());
 		panel.add(row);
 
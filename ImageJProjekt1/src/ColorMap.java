@@ -0,0 +1,146 @@
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+import ij.plugin.LutLoader;
+import ij.process.LUT;
+
+// the 256 colors that the windowed gray values 0..255 are displayed with. the
+// presets are computed, further maps can be loaded from ImageJ .lut files.
+// instances are immutable and part of the WindowSettings.
+public final class ColorMap {
+
+	// number of colors, one per gray value of the window
+	public static final int SIZE = 256;
+
+	// the classic gray ramp
+	public static final ColorMap GRAY;
+
+	// black - red - yellow - white
+	public static final ColorMap HOT;
+
+	// blue - cyan - yellow - red
+	public static final ColorMap JET;
+
+	// perceptually uniform dark blue - green - yellow
+	public static final ColorMap VIRIDIS;
+
+	private final String name;
+	private final int[] colors;
+	private final int hash;
+
+	static {
+		int[] gray = new int[SIZE];
+		int[] hot = new int[SIZE];
+		int[] jet = new int[SIZE];
+		for (int index = 0; index < SIZE; index++) {
+			double x = index / 255.0;
+			gray[index] = (index<<16) | (index<<8) | index;
+			hot[index] = rgb(x / 0.375, (x-0.375) / 0.375, (x-0.75) / 0.25);
+			jet[index] = rgb(Math.min(4*x - 1.5, -4*x + 4.5), Math.min(4*x - 0.5, -4*x + 3.5), Math.min(4*x + 0.5, -4*x + 2.5));
+		}
+		GRAY = new ColorMap("Gray", gray);
+		HOT = new ColorMap("Hot", hot);
+		JET = new ColorMap("Jet", jet);
+
+		// viridis, interpolated between ten of its colors
+		int[] stops = { 0x440154, 0x482878, 0x3e4989, 0x31688e, 0x26828e, 0x1f9e89, 0x35b779, 0x6ece58, 0xb5de2b, 0xfde725 };
+		int[] viridis = new int[SIZE];
+		for (int index = 0; index < SIZE; index++) {
+			double position = index * (stops.length-1) / 255.0;
+			int stop = Math.min(stops.length-2, (int) position);
+			double f = position - stop;
+			int a = stops[stop], b = stops[stop+1];
+			viridis[index] = rgb(mix(a >> 16, b >> 16, f) / 255, mix(a >> 8, b >> 8, f) / 255, mix(a, b, f) / 255);
+		}
+		VIRIDIS = new ColorMap("Viridis", viridis);
+	}
+
+	// the presets, e.g. for a choice in a dialog
+	public static final ColorMap[] PRESETS = { GRAY, HOT, JET, VIRIDIS };
+
+	// a map with the given name and 256 packed RGB colors
+	public ColorMap(String name, int[] colors) {
+		if (colors.length != SIZE) {
+			throw new IllegalArgumentException("A color map needs "+SIZE+" colors, not "+colors.length);
+		}
+		this.name = name;
+		this.colors = new int[SIZE];
+		for (int index = 0; index < SIZE; index++) {
+			this.colors[index] = colors[index] & 0xffffff;
+		}
+		this.hash = name.hashCode()*31 + Arrays.hashCode(this.colors);
+	}
+
+	// the preset with the given name (ignoring case), or null
+	public static ColorMap forName(String name) {
+		for (ColorMap map : PRESETS) {
+			if (map.name.equalsIgnoreCase(name)) {
+				return map;
+			}
+		}
+		return null;
+	}
+
+	// a preset, or else a color map read from an ImageJ .lut (or palette) file
+	public static ColorMap forNameOrFile(String name) throws IOException {
+		ColorMap map = forName(name);
+		return map != null ? map : load(new File(name));
+	}
+
+	// read an ImageJ .lut file
+	public static ColorMap load(File file) throws IOException {
+		LUT lut = file.isFile() ? LutLoader.openLut(file.getPath()) : null;
+		if (lut == null || lut.getMapSize() != SIZE) {
+			throw new IOException("Can't read the color table "+file);
+		}
+		int[] colors = new int[SIZE];
+		for (int index = 0; index < SIZE; index++) {
+			colors[index] = lut.getRGB(index);
+		}
+		String name = file.getName();
+		int dot = name.lastIndexOf('.');
+		return new ColorMap(dot > 0 ? name.substring(0, dot) : name, colors);
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	// packed RGB color of a gray value 0..255
+	public int getColor(int gray) {
+		return colors[gray];
+	}
+
+	private static int rgb(double r, double g, double b) {
+		return (channel(r)<<16) | (channel(g)<<8) | channel(b);
+	}
+
+	// 0..1 to 0..255, clamped
+	private static int channel(double value) {
+		return (int) Math.round(255 * Math.max(0, Math.min(1, value)));
+	}
+
+	private static double mix(int a, int b, double f) {
+		return (a & 0xff) * (1-f) + (b & 0xff) * f;
+	}
+
+	@Override
+	public boolean equals(Object other) {
+		if (!(other instanceof ColorMap)) {
+			return false;
+		}
+		ColorMap map = (ColorMap) other;
+		return hash == map.hash && name.equals(map.name) && Arrays.equals(colors, map.colors);
+	}
+
+	@Override
+	public int hashCode() {
+		return hash;
+	}
+
+	@Override
+	public String toString() {
+		return name;
+	}
+}
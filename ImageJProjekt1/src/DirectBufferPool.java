@@ -0,0 +1,109 @@
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+
+// direct (off-heap) buffers for pixel data, e.g. rendered slices. their memory is
+// not part of the Java heap, so large images don't fill the old generation and
+// don't have to be copied by the garbage collector. direct buffers are expensive
+// to allocate and only freed by the garbage collector, so released buffers are
+// kept for the next request of the same size, up to maxPooledBytes.
+public class DirectBufferPool {
+
+	// the pool used by default
+	private static final DirectBufferPool shared = new DirectBufferPool(256L*1024*1024);
+
+	// capacity -> released buffers of that capacity
+	private final Map<Integer, ArrayDeque<ByteBuffer>> free = new HashMap<Integer, ArrayDeque<ByteBuffer>>();
+
+	// bytes held by released buffers and their limit
+	private long pooledBytes = 0, maxPooledBytes;
+
+	// bytes handed out and not released yet
+	private long usedBytes = 0;
+
+	// statistics
+	private long allocations = 0, reuses = 0;
+
+	public DirectBufferPool(long maxPooledBytes) {
+		this.maxPooledBytes = maxPooledBytes;
+	}
+
+	public static DirectBufferPool getShared() {
+		return shared;
+	}
+
+	// a cleared buffer of the given capacity in native byte order, reused if possible
+	public synchronized ByteBuffer acquire(int capacity) {
+		ArrayDeque<ByteBuffer> buffers = free.get(capacity);
+		ByteBuffer buffer = buffers != null ? buffers.poll() : null;
+		if (buffer != null) {
+			pooledBytes -= capacity;
+			reuses++;
+			buffer.clear();
+		}
+		else {
+			buffer = ByteBuffer.allocateDirect(capacity).order(ByteOrder.nativeOrder());
+			allocations++;
+		}
+		usedBytes += capacity;
+		return buffer;
+	}
+
+	// give a buffer back; it must not be used any more. it's kept for reuse if the pool has room.
+	public synchronized void release(ByteBuffer buffer) {
+		int capacity = buffer.capacity();
+		usedBytes -= capacity;
+		if (pooledBytes + capacity > maxPooledBytes) {
+			return;
+		}
+		ArrayDeque<ByteBuffer> buffers = free.get(capacity);
+		if (buffers == null) {
+			buffers = new ArrayDeque<ByteBuffer>();
+			free.put(capacity, buffers);
+		}
+		buffers.push(buffer);
+		pooledBytes += capacity;
+	}
+
+	// change the limit for released buffers, dropping some if necessary
+	public synchronized void setMaxPooledBytes(long maxPooledBytes) {
+		this.maxPooledBytes = maxPooledBytes;
+		if (pooledBytes > maxPooledBytes) {
+			clear();
+		}
+	}
+
+	public synchronized long getMaxPooledBytes() {
+		return maxPooledBytes;
+	}
+
+	// drop all released buffers, their memory is freed by the garbage collector
+	public synchronized void clear() {
+		free.clear();
+		pooledBytes = 0;
+	}
+
+	public synchronized long getPooledBytes() {
+		return pooledBytes;
+	}
+
+	public synchronized long getUsedBytes() {
+		return usedBytes;
+	}
+
+	public synchronized long getAllocations() {
+		return allocations;
+	}
+
+	public synchronized long getReuses() {
+		return reuses;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "Direct buffers: "+(usedBytes/1024)+" KB used, "+(pooledBytes/1024)+" of "+(maxPooledBytes/1024)
+				+" KB pooled, "+allocations+" allocated, "+reuses+" reused";
+	}
+}
@@ -0,0 +1,134 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import ij.IJ;
+import ij.Macro;
+import ij.plugin.PlugIn;
+import ij.util.Tools;
+
+// windows a whole directory of 16 bit images (e.g. DICOM or TIFF) into RGB images,
+// without any user interface. all parameters are given as options, either from a
+// macro, e.g.
+//
+//   run("Display16BitAsRGBBatch", "input=/data/ct output=/data/preview auto");
+//
+// or on the command line, without starting ImageJ:
+//
+//   java -cp ij.jar:ImageJProjekt1_.jar Display16BitAsRGBBatch_ input=/data/ct output=/data/preview center=1200 width=800
+//
+// options: input=<directory, text file with one path per line, or image file>
+// output=<directory> and either center=<value> width=<value> for a fixed window,
+// or auto [low=<percentile>] [high=<percentile>] for a window per image. further
+// inverted, clip_low, clip_high, lut=<gray|hot|jet|viridis or .lut file>,
+// format=<png|tif|jpg>, readers=<n>, workers=<n>, writers=<n> and queue=<n>.
+public class Display16BitAsRGBBatch_ implements PlugIn {
+
+	@Override
+	public void run(String arg) {
+		String options = Macro.getOptions();
+		if (options == null || options.trim().isEmpty()) {
+			options = arg;
+		}
+		if (options == null || Macro.getValue(options, "input", null) == null || Macro.getValue(options, "output", null) == null) {
+			IJ.error("Batch windowing", "Usage: input=<directory or list> output=<directory> [center=<c> width=<w> | auto] ...");
+			return;
+		}
+
+		BatchWindowing batch = new BatchWindowing(new File(Macro.getValue(options, "output", null)));
+		boolean inverted = isSet(options, "inverted");
+		boolean showLoClipping = isSet(options, "clip_low");
+		boolean showHiClipping = isSet(options, "clip_high");
+		String center = Macro.getValue(options, "center", null);
+		String width = Macro.getValue(options, "width", null);
+		if (center != null && width != null && !isSet(options, "auto")) {
+			batch.setWindow(new WindowSettings((int) number(center), (int) number(width), inverted, showLoClipping, showHiClipping));
+		}
+		else {
+			batch.setAutoWindow(number(Macro.getValue(options, "low", "0.5")), number(Macro.getValue(options, "high", "99.5")),
+					inverted, showLoClipping, showHiClipping);
+		}
+		int processors = Runtime.getRuntime().availableProcessors();
+		batch.setThreads((int) number(Macro.getValue(options, "readers", "1")),
+				(int) number(Macro.getValue(options, "workers", ""+processors)),
+				(int) number(Macro.getValue(options, "writers", ""+processors)));
+		batch.setQueueSize((int) number(Macro.getValue(options, "queue", "4")));
+		batch.setFormat(Macro.getValue(options, "format", "png"));
+
+		try {
+			batch.setColorMap(ColorMap.forNameOrFile(Macro.getValue(options, "lut", "gray")));
+			List<File> files = listInputs(new File(Macro.getValue(options, "input", null)));
+			IJ.log("Batch windowing of "+files.size()+" files");
+			BatchWindowing.Report report = batch.run(files);
+			IJ.log(report.toString());
+		} catch (IOException e) {
+			IJ.error("Batch windowing", e.getMessage());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	// run without ImageJ, the arguments are the options
+	public static void main(String[] args) {
+		StringBuilder options = new StringBuilder();
+		for (String arg : args) {
+			options.append(arg).append(' ');
+		}
+		new Display16BitAsRGBBatch_().run(options.toString());
+	}
+
+	// the files in a directory (sorted by name, without hidden files and
+	// subdirectories), the files listed in a text file, or a single file
+	static List<File> listInputs(File input) throws IOException {
+		List<File> files = new ArrayList<File>();
+		if (input.isDirectory()) {
+			File[] all = input.listFiles();
+			if (all == null) {
+				throw new IOException("Can't list "+input);
+			}
+			Arrays.sort(all);
+			for (File file : all) {
+				if (file.isFile() && !file.isHidden()) {
+					files.add(file);
+				}
+			}
+		}
+		else if (input.getName().toLowerCase().endsWith(".txt")) {
+			BufferedReader reader = new BufferedReader(new FileReader(input));
+			try {
+				String line;
+				while ((line = reader.readLine()) != null) {
+					if (!line.trim().isEmpty()) {
+						files.add(new File(line.trim()));
+					}
+				}
+			} finally {
+				reader.close();
+			}
+		}
+		else if (input.isFile()) {
+			files.add(input);
+		}
+		else {
+			throw new IOException(input+" not found");
+		}
+		return files;
+	}
+
+	// true if the option is given as a single word, like the checkboxes of a macro
+	private static boolean isSet(String options, String key) {
+		return (" "+options+" ").contains(" "+key+" ");
+	}
+
+	private static double number(String text) {
+		double value = Tools.parseDouble(text);
+		if (Double.isNaN(value)) {
+			throw new IllegalArgumentException("Not a number: "+text);
+		}
+		return value;
+	}
+}
@@ -4,7 +4,13 @@ import java.awt.event.*;
 import javax.swing.*;
 import javax.swing.event.*;
 
+import java.io.File;
+import java.io.IOException;
+
 import ij.*;
+import ij.io.OpenDialog;
+import ij.io.SaveDialog;
+import ij.util.Tools;
 
 // dialog that acts as a view + controller for a specific ImageJ plugin
 public class Display16BitAsRGBDialog extends JDialog implements ChangeListener {
@@ -19,6 +25,22 @@ public class Display16BitAsRGBDialog extends JDialog implements ChangeListener {
 	private JSlider window_center_slider, window_width_slider;
 	private JTextField window_center_txt, window_width_txt;
 	private JCheckBox chk_inverted, chk_clipLo, chk_clipHi;
+	private JTextField auto_low_txt, auto_high_txt;
+	private JComboBox<ColorMap> colorMapChoice;
+	private JCheckBox chk_metrics;
+
+	// true while the UI elements are set from the model, so they don't report back to it
+	private boolean updatingView = false;
+
+	// time in ms a slider has to rest before the preview is refined
+	private static final int SETTLE_DELAY = 200;
+
+	// renders the full resolution image once a dragged slider rests
+	private final Timer settleTimer = new Timer(SETTLE_DELAY, new ActionListener() {
+		public void actionPerformed(ActionEvent ev) {
+			updateModel(false);
+		}
+	});
 
 	// constructor puts together the elements of the dialog
 	public Display16BitAsRGBDialog(final Display16BitAsRGB_ model) {
@@ -28,6 +50,7 @@ public class Display16BitAsRGBDialog extends JDialog implements ChangeListener {
 		
 		// remember the model
 		this.model = model;
+		settleTimer.setRepeats(false);
 	
 		// dialog containing UI elements to control plugin 
 		setSize(400,200); 
@@ -98,12 +121,110 @@ public class Display16BitAsRGBDialog extends JDialog implements ChangeListener {
 		row.add(autoWindow);
 		autoWindow.addActionListener(new ActionListener() {
 			public void actionPerformed(ActionEvent ev) {
+				// percentiles out of 0..100 are clamped, and swapped if the lower one is the larger
+				double low = Tools.parseDouble(auto_low_txt.getText(), model.autoWindowLowPercentile);
+				double high = Tools.parseDouble(auto_high_txt.getText(), model.autoWindowHighPercentile);
+				model.autoWindowLowPercentile = WindowSettings.lowerPercentile(low, high);
+				model.autoWindowHighPercentile = WindowSettings.upperPercentile(low, high);
 				model.calculateAutoWindow();
 				model.update();
 				updateViewController();
 			}
 		});
 		row.add(autoWindow);
+
+		// percentiles that define the auto window
+		auto_low_txt = new JTextField(""+model.autoWindowLowPercentile, 4);
+		auto_high_txt = new JTextField(""+model.autoWindowHighPercentile, 4);
+		row.add(new JLabel("  Perzentile (%): "));
+		row.add(auto_low_txt);
+		row.add(auto_high_txt);
+		row.add(Box.createHorizontalGlue());
+		panel.add(row);
+
+		// colors of the window: a preset or a color table loaded from a file
+		row = new JPanel();
+		row.setLayout(new BoxLayout(row, BoxLayout.X_AXIS));
+		row.add(new JLabel("Farbtabelle: "));
+		colorMapChoice = new JComboBox<ColorMap>(ColorMap.PRESETS);
+		selectColorMap(model.colorMap);
+		colorMapChoice.addActionListener(new ActionListener() {
+			public void actionPerformed(ActionEvent ev) {
+				if (!updatingView) {
+					updateModel();
+				}
+			}
+		});
+		row.add(colorMapChoice);
+		JButton loadColorMap = new JButton("Laden...");
+		loadColorMap.addActionListener(new ActionListener() {
+			public void actionPerformed(ActionEvent ev) {
+				loadColorMap();
+			}
+		});
+		row.add(loadColorMap);
+		row.add(Box.createHorizontalGlue());
+		panel.add(row);
+
+		// window presets: a button for each, and its key while the dialog has the focus
+		if (model.presets != null && !model.presets.isEmpty()) {
+			row = new JPanel();
+			row.setLayout(new BoxLayout(row, BoxLayout.X_AXIS));
+			row.add(new JLabel("Voreinstellungen: "));
+			InputMap keys = getRootPane().getInputMap(JComponent.WHEN_IN_FOCUSED_WINDOW);
+			ActionMap actions = getRootPane().getActionMap();
+			for (final WindowPreset preset : model.presets) {
+				Action select = new AbstractAction(preset.name) {
+					private static final long serialVersionUID = 1L;
+
+					public void actionPerformed(ActionEvent ev) {
+						model.applyPreset(preset);
+						updateViewController();
+					}
+				};
+				JButton button = new JButton(select);
+				button.setToolTipText(preset.toString());
+				row.add(button);
+				if (preset.key != null) {
+					keys.put(preset.key, preset);
+					actions.put(preset, select);
+				}
+			}
+			row.add(Box.createHorizontalGlue());
+			panel.add(row);
+		}
+
+		// timing of the rendering: switch on, show in the log, export
+		row = new JPanel();
+		row.setLayout(new BoxLayout(row, BoxLayout.X_AXIS));
+		chk_metrics = new JCheckBox("Zeitmessung", model.getMetrics().isEnabled());
+		chk_metrics.addActionListener(new ActionListener() {
+			public void actionPerformed(ActionEvent ev) {
+				model.getMetrics().setEnabled(chk_metrics.isSelected());
+			}
+		});
+		row.add(chk_metrics);
+		JButton logMetrics = new JButton("Log");
+		logMetrics.addActionListener(new ActionListener() {
+			public void actionPerformed(ActionEvent ev) {
+				IJ.log(model.getMetrics().toText(model.getScheduler()));
+			}
+		});
+		row.add(logMetrics);
+		JButton exportMetrics = new JButton("Export...");
+		exportMetrics.addActionListener(new ActionListener() {
+			public void actionPerformed(ActionEvent ev) {
+				exportMetrics();
+			}
+		});
+		row.add(exportMetrics);
+		JButton resetMetrics = new JButton("Reset");
+		resetMetrics.addActionListener(new ActionListener() {
+			public void actionPerformed(ActionEvent ev) {
+				model.getMetrics().reset();
+			}
+		});
+		row.add(resetMetrics);
 		row.add(Box.createHorizontalGlue());
 		panel.add(row);
 
@@ -154,8 +275,60 @@ public class Display16BitAsRGBDialog extends JDialog implements ChangeListener {
 	}
 
 
+	// read an ImageJ .lut file and show the image with it
+	private void loadColorMap() {
+		OpenDialog od = new OpenDialog("Farbtabelle laden", null);
+		if (od.getFileName() == null) {
+			return;
+		}
+		try {
+			selectColorMap(ColorMap.load(new File(od.getDirectory(), od.getFileName())));
+		} catch (IOException e) {
+			IJ.error("Farbtabelle laden", e.getMessage());
+		}
+	}
+
+	// select the color map in the choice, adding it if it's not there yet
+	private void selectColorMap(ColorMap colorMap) {
+		if (colorMap.equals(colorMapChoice.getSelectedItem())) {
+			return;
+		}
+		boolean listed = false;
+		for (int index = 0; index < colorMapChoice.getItemCount(); index++) {
+			listed |= colorMap.equals(colorMapChoice.getItemAt(index));
+		}
+		if (!listed) {
+			colorMapChoice.addItem(colorMap);
+		}
+		colorMapChoice.setSelectedItem(colorMap);
+	}
+
+	// save the timing of the rendering as CSV, or as JSON if the file name ends with .json
+	private void exportMetrics() {
+		SaveDialog sd = new SaveDialog("Export metrics", "render-metrics", ".csv");
+		if (sd.getFileName() == null) {
+			return;
+		}
+		String path = sd.getDirectory() + sd.getFileName();
+		RenderMetrics metrics = model.getMetrics();
+		String text = path.toLowerCase().endsWith(".json") ? metrics.toJSON(model.getScheduler()) : metrics.toCSV(model.getScheduler());
+		String error = IJ.saveString(text, path);
+		if (error != null) {
+			IJ.error("Export metrics", error);
+		}
+	}
+
 	// update values in UI components according 
 	public void updateViewController() {
+		updatingView = true;
+		try {
+			setViewController();
+		} finally {
+			updatingView = false;
+		}
+	}
+
+	private void setViewController() {
 
 		min_label.setText(""+model.min_value);
 		max_label.setText(""+model.max_value);
@@ -164,6 +337,10 @@ public class Display16BitAsRGBDialog extends JDialog implements ChangeListener {
 		chk_clipLo.setSelected(model.showLoClipping);
 		chk_clipHi.setSelected(model.showHiClipping);
 
+		auto_low_txt.setText(""+model.autoWindowLowPercentile);
+		auto_high_txt.setText(""+model.autoWindowHighPercentile);
+		selectColorMap(model.colorMap);
+
 		window_center_slider.setValue(model.window_center);
 		window_center_slider.setMinimum(model.min_value);
 		window_center_slider.setMaximum(model.max_value);
@@ -178,22 +355,41 @@ public class Display16BitAsRGBDialog extends JDialog implements ChangeListener {
 
 	// update values in model according to the UI 
 	public void updateModel() {
+		updateModel(false);
+	}
+
+	// same, but let the model render a quick preview if requested
+	public void updateModel(boolean preview) {
 
 		model.showInverted   = chk_inverted.isSelected();
 		model.showLoClipping = chk_clipLo.isSelected();
 		model.showHiClipping = chk_clipHi.isSelected();
+		model.colorMap = (ColorMap) colorMapChoice.getSelectedItem();
 
 		model.window_center = window_center_slider.getValue();
 		model.window_width  = window_width_slider.getValue();
 		
-		model.update();
+		model.update(preview);
 
 	}
 
 	// whenever one of the UI elements changes...
 	@Override
 	public void stateChanged(ChangeEvent e) {
-		updateModel();		
+		if (updatingView) {
+			return;
+		}
+		
+		// while a slider is being dragged a preview is enough; it is refined 
+		// when the slider is released or rests for a moment
+		boolean dragging = e.getSource() instanceof JSlider && ((JSlider) e.getSource()).getValueIsAdjusting();
+		updateModel(dragging);
+		if (dragging) {
+			settleTimer.restart();
+		}
+		else {
+			settleTimer.stop();
+		}
 	}
 }
 
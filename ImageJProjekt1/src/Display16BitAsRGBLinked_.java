@@ -0,0 +1,75 @@
+import java.util.ArrayList;
+import java.util.List;
+
+import ij.IJ;
+import ij.ImagePlus;
+import ij.WindowManager;
+import ij.gui.GenericDialog;
+import ij.plugin.PlugIn;
+
+// windows several open 16 bit images together, e.g. series that are compared side
+// by side: a single dialog drives the window, the display options and the color
+// map of all of them. every image gets its own RGB output, and the outputs are
+// rendered at the same time on the shared render workers.
+public class Display16BitAsRGBLinked_ implements PlugIn {
+
+	@Override
+	public void run(String arg) {
+		List<ImagePlus> candidates = new ArrayList<ImagePlus>();
+		int[] ids = WindowManager.getIDList();
+		if (ids != null) {
+			for (int id : ids) {
+				ImagePlus image = WindowManager.getImage(id);
+				if (image != null && image.getBitDepth() == 16) {
+					candidates.add(image);
+				}
+			}
+		}
+		if (candidates.size() < 2) {
+			IJ.error("Verkn\u00fcpfte Fensterung", "Es werden mindestens zwei ge\u00f6ffnete 16 Bit Bilder ben\u00f6tigt.");
+			return;
+		}
+
+		GenericDialog gd = new GenericDialog("Verkn\u00fcpfte Fensterung");
+		gd.addMessage("Gemeinsam zu fenstern:");
+		for (ImagePlus image : candidates) {
+			gd.addCheckbox(image.getTitle(), true);
+		}
+		gd.showDialog();
+		if (gd.wasCanceled()) {
+			return;
+		}
+		List<ImagePlus> images = new ArrayList<ImagePlus>();
+		for (ImagePlus image : candidates) {
+			if (gd.getNextBoolean()) {
+				images.add(image);
+			}
+		}
+		if (images.isEmpty()) {
+			return;
+		}
+
+		// analyze all images; the first one gets the dialog, with the value range of all
+		LinkedWindowing link = new LinkedWindowing();
+		List<Display16BitAsRGB_> models = new ArrayList<Display16BitAsRGB_>();
+		for (ImagePlus image : images) {
+			Display16BitAsRGB_ model = new Display16BitAsRGB_();
+			model.setup("", image);
+			model.analyze(image.getProcessor());
+			models.add(model);
+		}
+		Display16BitAsRGB_ driver = models.get(0);
+		for (Display16BitAsRGB_ model : models) {
+			link.add(model);
+		}
+		driver.min_value = link.getMinValue();
+		driver.max_value = link.getMaxValue();
+		driver.window_center = driver.min_value + (driver.max_value-driver.min_value)/2;
+		driver.window_width = (driver.max_value-driver.min_value)*2;
+		driver.showDialog();
+		for (Display16BitAsRGB_ model : models) {
+			model.setSettings(driver.getSettings());
+			model.showOutput(model.getInputImage().getShortTitle()+" (RGB)");
+		}
+	}
+}
@@ -1,3 +1,10 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Vector;
 import java.awt.*;
 import java.awt.event.*;
@@ -7,6 +14,8 @@ import javax.swing.event.*;
 
 import ij.*;
 import ij.gui.*;
+import ij.io.FileInfo;
+import ij.measure.Calibration;
 import ij.plugin.filter.PlugInFilter;
 import ij.process.ImageProcessor;
 import ij.ImagePlus;
@@ -27,154 +36,1317 @@ public class Display16BitAsRGB_ implements PlugInFilter{
 	// display options
 	public boolean showInverted = false, showHiClipping = false, showLoClipping = false;
 	
+	// colors of the gray values within the window, see ColorMap
+	public ColorMap colorMap = ColorMap.GRAY;
+	
+	// percentiles of the pixel values that define the lower and upper border of the auto window
+	public double autoWindowLowPercentile = 0.5, autoWindowHighPercentile = 99.5;
+	
+	// memory for rendered slices of a stack, in megabytes
+	public int sliceCacheMegabytes = 256;
+	
+	// keep the rendered slices of a stack in pooled direct buffers instead of the Java heap;
+	// only the visible slice is copied into the array that ImageJ displays
+	public boolean offHeap = false;
+	
+	// while a slider is dragged, images with at least previewMinPixels pixels are
+	// rendered from every previewStep-th pixel only, and refined once it stops
+	public int previewStep = 4, previewMinPixels = 1024*1024;
+	
+	// single images with an area selection: while a slider is dragged, only the selected
+	// region is rendered (at full resolution), the rest of the image once it stops
+	public boolean roiPreview = true;
+	
+	// follow edits of the input image (e.g. by a filter), keeping min/max and the histogram up to date
+	public boolean trackInputChanges = true;
+	
+	// an edit of an image (of a stack: of the visible slice) of up to shadowMaxPixels pixels is
+	// found by comparing it with a copy of the pixels, which costs 2 bytes per pixel. larger images
+	// are counted again as a whole after an edit, unless this is raised for them.
+	public int shadowMaxPixels = 4096*4096;
+	
+	// remember the statistics and the last window of image files in the StatsCache, so that
+	// reopening an image neither scans it again nor starts with the default window
+	public boolean persistentStats = true;
+	
+	// named windows that are chosen in the dialog or with their keys, see WindowPreset.
+	// read from the presets file when the image is analyzed, unless set before.
+	public List<WindowPreset> presets;
+	
+	// single images of at least previewMinPixels: render the previews while a slider is dragged
+	// from a level of a pyramid of downsampled copies of the input, instead of every step-th
+	// pixel. the output settles at full resolution, so that it can be saved and measured.
+	public boolean usePyramid = true;
+	public MipmapPyramid.Mode pyramidMode = MipmapPyramid.Mode.MEAN;
+	
 	// --- end of public properties ---
 	
 	// a dialog provides the combined view + controller
 	private Display16BitAsRGBDialog dialog;
 
+	// the images that are windowed together with this one, null if it's on its own
+	private LinkedWindowing link;
+
 	// input and output image
+	private ImagePlus inputImage;
 	private ImageProcessor inputProcessor;
 	private ImagePlus outputImage;
 
+	// for stacks: all slices of the input, and the rendered output slices
+	private ImageStack inputStack;
+	private SliceCache sliceCache;
+
+	// off heap: the array of the visible output slice, reused for every slice that is shown
+	private int[] visiblePixels;
+	private final Object visibleLock = new Object();
+
+	// the slice rendered last by the scheduler, to be shown when it is published
+	private volatile int renderedSlice;
+	private volatile int[] renderedPixels;
+
+	// histogram of the input image, and the pixel array or stack it was computed from. if
+	// the input has an area selection, only the selected pixels are counted; histogramRoi
+	// is a copy of that selection, null for the whole image.
+	private Histogram16 histogram;
+	private Object histogramSource;
+	private Roi histogramRoi;
+
+	// single images: smallest and largest value in every row of the input, to find
+	// the rows that are affected when only some colors of the table change, and the
+	// pixel array they were found in
+	private char[] rowMin, rowMax;
+	private Object rowRangeSource;
+
+	// single images: the rows changed by renders that have not been drawn yet, none if
+	// firstRow >= endRow. a frame that is not published leaves its rows to the next one.
+	private int dirtyFirstRow, dirtyEndRow;
+	private final Object dirtyLock = new Object();
+
+	// single images: rows of the input that have been edited since the last render
+	private int inputDirtyFirstRow, inputDirtyEndRow;
+
+	// a copy of the input pixels as they were counted in the histogram (for stacks: of the
+	// visible slice, whose edits are followed), to find the rows an edit has changed. null
+	// if the image is larger than shadowMaxPixels.
+	private volatile boolean followingEdits = false;
+	private short[] shadowPixels;
+	private int followedSlice;
+
+	// tells the plugin about edits of the input image, and when the output is closed
+	private final ImageListener inputListener = new ImageListener() {
+		@Override
+		public void imageUpdated(ImagePlus image) {
+			if (image == inputImage) {
+				inputChanged();
+			}
+		}
+
+		@Override
+		public void imageClosed(ImagePlus image) {
+			if (image == inputImage || image == outputImage) {
+				saveStats(true);
+			}
+			if (image == inputImage || (image == outputImage && (link != null || inputImage.getWindow() == null))) {
+				// a linked image whose output is closed leaves the others for good. an input that is
+				// not displayed (e.g. a raw stream) can't be closed by the user, it goes with its output.
+				close();
+			}
+			else if (image == outputImage && sliceCache != null) {
+				// give the rendered slices back, they are rendered again if the output is shown again
+				sliceCache.clear();
+			}
+		}
+
+		@Override
+		public void imageOpened(ImagePlus image) {
+		}
+	};
+
+	// the tables of the presets for the current display options, as requested and as
+	// pinned in the table cache. the tables are built and pinned on the render workers.
+	private volatile List<WindowSettings> presetTarget = Collections.emptyList();
+	private List<WindowSettings> presetsPinned = Collections.emptyList();
+	private final Object presetLock = new Object();
+
+	// switches to a preset when its key is pressed in the output window
+	private final KeyListener presetKeys = new KeyAdapter() {
+		@Override
+		public void keyPressed(KeyEvent event) {
+			WindowPreset preset = getPreset(KeyStroke.getKeyStrokeForEvent(event));
+			if (preset != null) {
+				event.consume();
+				applyPreset(preset);
+				if (dialog != null) {
+					dialog.updateViewController();
+				}
+			}
+		}
+	};
+
+	// true once the input (or the output of a linked image) has been closed: nothing is rendered or shown any more
+	private volatile boolean closed = false;
+
+	// true while the settings are being adjusted (e.g. a slider is dragged): the tables built
+	// for them are not kept in the table cache, only the one the settings settle on
+	private volatile boolean adjusting = false;
+
+	// single images: true while the output shows a subsampled preview
+	private boolean previewShown = false;
+
+	// single images: downsampled copies of the input, built in the background, null until then.
+	// edits counts the edits of the input, to notice those made while the pyramid is built.
+	private volatile MipmapPyramid pyramid;
+	private int pyramidEdits;
+
+	// the pyramid and level the preview shown has been rendered from completely, level 0 if
+	// the output is at full resolution
+	private MipmapPyramid shownPyramid;
+	private int shownLevel = 0;
+
+	// maps 16 bit input values to RGB output colors for the current settings
+	private final WindowingTable windowingTable = new WindowingTable();
+
+	// timing of scan, table, render and draw; switched off unless asked for
+	private final RenderMetrics metrics = new RenderMetrics();
+
+	// renders the output image in the background whenever the settings change, on the
+	// render threads shared by all images, so that linked images are rendered at the same time
+	private final RenderScheduler<RenderRequest> scheduler = new RenderScheduler<RenderRequest>(
+			new RenderScheduler.Renderer<RenderRequest>() {
+				@Override
+				public void render(RenderRequest request) {
+					if (request.isPreview()) {
+						calculatePreviewImage(request.settings, request.previewStep);
+					}
+					else {
+						calculateOutputImage(request.settings);
+					}
+				}
+
+				@Override
+				public void publish() {
+					if (closed) {
+						return;
+					}
+					long start = metrics.start();
+					// bring the window back if it has been closed (a linked image has left the others instead, see close())
+					if (!outputImage.isVisible()) {
+						outputImage.show();
+					}
+					if (sliceCache != null) {
+						showRenderedSlice();
+						outputImage.updateAndDraw();
+						metrics.stop(RenderMetrics.Stage.DRAW, start, (long) outputImage.getWidth()*outputImage.getHeight());
+					}
+					else {
+						int firstRow, endRow;
+						synchronized (dirtyLock) {
+							firstRow = dirtyFirstRow;
+							endRow = dirtyEndRow;
+							dirtyFirstRow = dirtyEndRow = 0;
+						}
+						drawRows(firstRow, endRow);
+						metrics.stop(RenderMetrics.Stage.DRAW, start, (long) outputImage.getWidth()*Math.max(0, endRow-firstRow));
+					}
+				}
+			}, RenderScheduler.getSharedWorkers());
+
 	// this method is called to check which types of images this plugin accepts 
 	@Override
 	public int setup(String arg, ImagePlus imp) {
-		// this plugin only accepts 16 bit grayscale images (i.e. DICOM images)
+		// this plugin only accepts 16 bit grayscale images (i.e. DICOM images).
+		// stacks are not processed slice by slice, instead the output is a
+		// virtual stack that windows a slice when it is displayed.
+		inputImage = imp;
 		return DOES_16+NO_CHANGES;
 	}
 
 	// this method is called when the plugin is applied through the ImageJ UI 
 	@Override
 	public void run(ImageProcessor ip) {
-		
-		// analyze the input image, find min_value and max_value
+		analyze(ip);
+		showDialog();
+		showOutput("Output Image");
+	}
+
+	// analyze the input image (all slices of a stack), find min_value and max_value
+	void analyze(ImageProcessor ip) {
 		inputProcessor = ip;
-		findMinMaxPixelValue();
-		
-		// initially use a very soft all-enclosing window
-		calculateAutoWindow();
-		window_width*=2;
+		if (inputImage != null && inputImage.getStackSize() > 1) {
+			inputStack = inputImage.getStack();
+		}
+		if (inputImage != null) {
+			// with trackInputChanges, a shadow copy of the input is taken along with the histogram
+			followingEdits = trackInputChanges;
+			ImagePlus.addImageListener(inputListener);
+		}
+		StatsCache.Entry stats = loadStats();
+		if (stats == null) {
+			findMinMaxPixelValue();
+		}
 		
-		// create and show the dialg window 
+		// initially use a very soft all-enclosing window, or the one the image was shown with last time
+		if (stats != null && stats.hasWindow) {
+			window_center = stats.windowCenter;
+			window_width = stats.windowWidth;
+		}
+		else {
+			window_center = min_value + (max_value-min_value)/2;
+			window_width = (max_value-min_value)*2;
+		}
+		if (stats == null) {
+			saveStats(false);
+		}
+		if (presets == null) {
+			presets = WindowPreset.loadDefault();
+		}
+		precompilePresets();
+	}
+
+	// the file the input image has been read from, null if there is none or the image
+	// doesn't hold exactly what is in the file (it has been edited or has a selection)
+	private File inputFile() {
+		if (!persistentStats || inputImage == null || inputImage.changes || getAreaRoi() != null) {
+			return null;
+		}
+		FileInfo info = inputImage.getOriginalFileInfo();
+		if (info == null || info.fileName == null || info.directory == null || info.directory.isEmpty()
+				|| info.nImages != inputImage.getStackSize()) {
+			return null;
+		}
+		File file = new File(info.directory, info.fileName);
+		return file.isFile() ? file : null;
+	}
+
+	// take the statistics of the input image from the cache, null if they are not there
+	private StatsCache.Entry loadStats() {
+		File file = inputFile();
+		if (file == null) {
+			return null;
+		}
+		int width = inputProcessor.getWidth();
+		int height = inputProcessor.getHeight();
+		StatsCache.Entry stats = StatsCache.getShared().load(file, width, height, inputImage.getStackSize());
+		if (stats == null || (inputStack == null && stats.rowMin == null) || stats.histogram.getTotal() == 0) {
+			return null;
+		}
+		histogramRoi = null;
+		histogram = stats.histogram;
+		if (inputStack != null) {
+			histogramSource = inputStack;
+		}
+		else {
+			histogramSource = inputProcessor.getPixels();
+			rowMin = stats.rowMin;
+			rowMax = stats.rowMax;
+			rowRangeSource = histogramSource;
+		}
+		min_value = histogram.getMin();
+		max_value = histogram.getMax();
+		takeVisibleShadow();
+		return stats;
+	}
+
+	// put the statistics of the whole input image into the cache, with the current window if asked to.
+	// failing to write the cache is not worth bothering the user with.
+	private void saveStats(boolean withWindow) {
+		File file = inputFile();
+		if (file == null || histogram == null || histogramRoi != null) {
+			return;
+		}
+		char[] min = null, max = null;
+		if (inputStack == null) {
+			if (rowMin == null || rowRangeSource != inputProcessor.getPixels()) {
+				return;
+			}
+			min = rowMin;
+			max = rowMax;
+		}
+		StatsCache.Entry stats = new StatsCache.Entry(inputProcessor.getWidth(), inputProcessor.getHeight(),
+				inputImage.getStackSize(), histogram, min, max, withWindow, window_center, window_width);
+		try {
+			StatsCache.getShared().save(file, stats);
+		} catch (IOException e) {
+			IJ.log("Display16BitAsRGB: can't cache the statistics of "+file+": "+e.getMessage());
+		}
+	}
+
+	// create and show the dialg window 
+	void showDialog() {
 		dialog = new Display16BitAsRGBDialog(this);
 		dialog.setVisible(true);
+	}
+
+	// create a new output image with the given title and show it
+	void showOutput(String title) {
 		
-		// create a new output image. make it RGB so we can draw colored markers into it 
-		outputImage = NewImage.createRGBImage("Output Image",ip.getWidth(), ip.getHeight(), 1, 0);			
-		calculateOutputImage();
+		// make it RGB so we can draw colored markers into it 
+		if (inputStack != null) {
+			outputImage = createOutputStack(title);
+		}
+		else {
+			outputImage = NewImage.createRGBImage(title, inputProcessor.getWidth(), inputProcessor.getHeight(), 1, 0);
+			calculateOutputImage(getSettings());
+		}
 		
 		// show it
+		long start = metrics.start();
 		outputImage.show();
 		outputImage.updateAndDraw();
-			
+		metrics.stop(RenderMetrics.Stage.DRAW, start, (long) outputImage.getWidth()*outputImage.getHeight());
+		if (outputImage.getCanvas() != null) {
+			outputImage.getCanvas().addKeyListener(presetKeys);
+		}
+		buildPyramid();
 	}
 
-	// given min and max, automatically determine a default display window 
-	public void calculateAutoWindow() {
-		int newCenter = (int)((max_value-min_value)/2);
-		int newWidth = max_value-min_value;
-		window_width = newWidth;
-		window_center = newCenter;
+	// single images: build the pyramid for the previews on the render workers
+	private void buildPyramid() {
+		final int width = inputProcessor.getWidth();
+		final int height = inputProcessor.getHeight();
+		if (!usePyramid || inputStack != null || (long) width*height < previewMinPixels) {
+			return;
+		}
+		RenderScheduler.getSharedWorkers().execute(new Runnable() {
+			@Override
+			public void run() {
+				while (true) {
+					int edits;
+					Object pixels;
+					synchronized (windowingTable) {
+						edits = pyramidEdits;
+						pixels = inputProcessor.getPixels();
+					}
+					if (!(pixels instanceof short[])) {
+						return;
+					}
+					long start = metrics.start();
+					MipmapPyramid built = new MipmapPyramid((short[]) pixels, width, height, pyramidMode);
+					metrics.stop(RenderMetrics.Stage.PYRAMID, start, (long) width*height);
+					synchronized (windowingTable) {
+						// edited in the meantime: build it again
+						if (edits == pyramidEdits && pixels == inputProcessor.getPixels()) {
+							pyramid = built;
+							break;
+						}
+					}
+				}
+			}
+		});
 	}
-	
 
-	// calculate the pixels of the output image from those of the input image 
-	private void calculateOutputImage() {
+	// build the pyramid for the previews right away, e.g. for benchmarks and tests
+	void buildPyramidNow() {
+		pyramid = new MipmapPyramid((short[]) inputProcessor.getPixels(), inputProcessor.getWidth(),
+				inputProcessor.getHeight(), pyramidMode);
+	}
 
-		// colors to be used for low/hi clipping
-		final int color_low  = 0x0000ff;
-		final int color_high = 0xff0000;			
-		
-		short[] inPixels = (short[]) inputProcessor.getPixels();
-		int[] outPixels = (int[]) outputImage.getProcessor().getPixels();
-
-		// determine borders of window
-		int low = (window_center-(window_width/2));
-		int high = (window_center+(window_width/2));
-
-		for (int i=0; i<inputProcessor.getWidth(); i++) {
-			for (int j = 0; j < inputProcessor.getHeight(); j++) {
-				int index = j * inputProcessor.getWidth()+i;
-
-				// just the current pixel color; int because the window width can be much wider than the "short" type
-				int zwischenPixel = (int)(inPixels[index] & 0xffff);
-				
-				// check if the current pixel is within the window
-				if (zwischenPixel>low && zwischenPixel<high) {
-					
-					// apply the window: subtract lower value, divide by width, multiply by graytones
-					float windowedPixel = (zwischenPixel-low)*255/window_width;
-					
-					// apply to RGB
-					int red = (int)windowedPixel;
-					int green = (int)windowedPixel;
-					int blue = (int)windowedPixel;
-					outPixels[index] = (int)((red & 0xff)<<16)+((green & 0xff)<<8) + (blue & 0xff); 
-				}
-				
-				// clippings
-				else if (inPixels[index]<low) {
-					if (showLoClipping) {
-						outPixels[index] = color_low;
+	// the pyramid if it is up to date, else null
+	private MipmapPyramid getPyramid() {
+		MipmapPyramid pyramid = this.pyramid;
+		return pyramid != null && pyramid.getSource() == inputProcessor.getPixels() ? pyramid : null;
+	}
+
+	// the level of the pyramid that matches the magnification of the output, 0 for full resolution
+	private int getZoomLevel() {
+		MipmapPyramid pyramid = getPyramid();
+		ImageCanvas canvas = outputImage != null ? outputImage.getCanvas() : null;
+		return pyramid != null && canvas != null ? pyramid.getLevel(canvas.getMagnification()) : 0;
+	}
+
+	// create the output for a stack, which renders its slices only when they are displayed
+	private ImagePlus createOutputStack(String title) {
+		int width = inputProcessor.getWidth();
+		long maxBytes = sliceCacheMegabytes*1024L*1024L;
+		sliceCache = new SliceCache(new SliceCache.SliceRenderer() {
+			@Override
+			public void renderSlice(int slice, WindowSettings settings, WindowingTable table, int[] outPixels) {
+				if (inputStack instanceof MappedRawStack) {
+					// the file is gone once the input has been closed, until then it stays open
+					// while the slice is rendered
+					MappedRawStack stack = (MappedRawStack) inputStack;
+					ShortBuffer inPixels = stack.acquire(slice);
+					if (inPixels != null) {
+						try {
+							render(inPixels, outPixels, settings, table);
+						} finally {
+							stack.release();
+						}
 					}
-					else {
-						outPixels[index] = 0x000000;
+				}
+				else {
+					render((short[]) inputStack.getPixels(slice), outPixels, settings, table);
+				}
+			}
+
+			@Override
+			public void renderSlice(int slice, WindowSettings settings, WindowingTable table, IntBuffer outPixels) {
+				if (inputStack instanceof MappedRawStack) {
+					// the file is gone once the input has been closed, until then it stays open
+					// while the slice is rendered
+					MappedRawStack stack = (MappedRawStack) inputStack;
+					ShortBuffer inPixels = stack.acquire(slice);
+					if (inPixels != null) {
+						try {
+							render(inPixels, outPixels, settings, table);
+						} finally {
+							stack.release();
+						}
 					}
 				}
-				else if (inPixels[index]>high) {
-					if (showHiClipping) {
-						outPixels[index] = color_high;
+				else {
+					render((short[]) inputStack.getPixels(slice), outPixels, settings, table);
+				}
+			}
+		}, width*inputProcessor.getHeight(), maxBytes, offHeap ? DirectBufferPool.getShared() : null);
+
+		ImagePlus output = new ImagePlus(title, new WindowedStack(this, inputStack));
+		if (inputImage.isHyperStack()) {
+			int[] dimensions = inputImage.getDimensions();
+			output.setDimensions(dimensions[2], dimensions[3], dimensions[4]);
+			output.setOpenAsHyperStack(true);
+		}
+		output.setSlice(inputImage.getCurrentSlice());
+		return output;
+	}
+
+	// rendered pixels of a slice of the output stack with the current settings. the
+	// neighbouring slices are prepared in the background, as the user is likely to scroll there.
+	int[] getSlice(int n) {
+		if (closed) {
+			// the input has gone with its pixels, the slice stays black
+			return new int[inputProcessor.getWidth()*inputProcessor.getHeight()];
+		}
+		WindowSettings settings = getSettings();
+		int[] pixels;
+		if (sliceCache.isOffHeap() && (outputImage == null || outputImage.getCurrentSlice() == n)) {
+			pixels = showOffHeap(n, settings);
+		}
+		else {
+			// off heap, any other slice (e.g. for a duplicate) gets an array of its own
+			pixels = sliceCache.get(n, settings, windowingTable);
+		}
+		sliceCache.prefetch(n, 1, inputStack.getSize(), settings);
+		return pixels;
+	}
+
+	// off heap: copy a slice into the array that ImageJ displays, unless another slice is shown by now
+	private int[] showOffHeap(int slice, WindowSettings settings) {
+		synchronized (visibleLock) {
+			if (visiblePixels == null) {
+				visiblePixels = new int[inputProcessor.getWidth()*inputProcessor.getHeight()];
+			}
+			if (outputImage == null || outputImage.getCurrentSlice() == slice) {
+				sliceCache.get(slice, settings, windowingTable, visiblePixels);
+			}
+			return visiblePixels;
+		}
+	}
+
+	// show the slice rendered by the scheduler, unless the user has scrolled away meanwhile
+	private void showRenderedSlice() {
+		ImageProcessor ip = outputImage.getProcessor();
+		if (outputImage.getCurrentSlice() == renderedSlice && ip.getPixels() != renderedPixels) {
+			ip.setPixels(renderedPixels);
+		}
+	}
+
+	// the rows firstRow..endRow-1 of the output have been rendered, they are drawn with the next frame
+	private void addDirtyRows(int firstRow, int endRow) {
+		if (firstRow >= endRow) {
+			return;
+		}
+		synchronized (dirtyLock) {
+			if (dirtyFirstRow < dirtyEndRow) {
+				dirtyFirstRow = Math.min(dirtyFirstRow, firstRow);
+				dirtyEndRow = Math.max(dirtyEndRow, endRow);
+			}
+			else {
+				dirtyFirstRow = firstRow;
+				dirtyEndRow = endRow;
+			}
+		}
+	}
+
+	// repaint the given rows of the output image only. the displayed image shares
+	// its pixel array with the processor, so there is nothing to copy.
+	private void drawRows(int firstRow, int endRow) {
+		ImageCanvas canvas = outputImage.getCanvas();
+		if (canvas == null || firstRow >= endRow) {
+			return;
+		}
+		canvas.setImageUpdated();
+		
+		// one more row on either side, to cover rounding at magnifications other than 100%
+		int top = Math.max(0, firstRow-1);
+		int bottom = Math.min(outputImage.getHeight(), endRow+1);
+		outputImage.draw(0, top, outputImage.getWidth(), bottom-top);
+	}
+
+	// work on the given images without any user interface, e.g. in benchmarks
+	void setImages(ImageProcessor input, ImagePlus output) {
+		inputProcessor = input;
+		outputImage = output;
+	}
+
+	// automatically determine a default display window from the histogram, so that
+	// a few outliers (e.g. hot or dead pixels) don't widen the window. this only
+	// looks at the histogram bins, the pixels are not scanned again.
+	public void calculateAutoWindow() {
+		WindowSettings settings = WindowSettings.fromPercentiles(getHistogram(), autoWindowLowPercentile,
+				autoWindowHighPercentile, showInverted, showLoClipping, showHiClipping);
+		window_width = settings.width;
+		window_center = settings.center;
+	}
+
+	// histogram of the input image (or its selection), only computed again if the image or the selection has changed
+	public Histogram16 getHistogram() {
+		Object source = inputStack != null ? inputStack : inputProcessor.getPixels();
+		Roi roi = getAreaRoi();
+		if (histogram == null || histogramSource != source || (roi == null ? histogramRoi != null : !roi.equals(histogramRoi))) {
+			findMinMaxPixelValue();
+		}
+		return histogram;
+	}
+
+	// the area selection of the input image, null if there is none
+	private Roi getAreaRoi() {
+		Roi roi = inputImage != null ? inputImage.getRoi() : null;
+		return roi != null && roi.isArea() ? roi : null;
+	}
+
+	// the part of the input that an edit has changed: the bounds of the area selection, within
+	// which ImageJ edits, or the whole image. edits outside of a selection, e.g. by a macro,
+	// are found with the next edit without one.
+	private Rectangle getEditedRegion(int width, int height) {
+		Rectangle image = new Rectangle(width, height);
+		Roi roi = getAreaRoi();
+		return roi != null ? roi.getBounds().intersection(image) : image;
+	}
+	
+
+	// snapshot of the current window and display options
+	public WindowSettings getSettings() {
+		return new WindowSettings(window_center, window_width, showInverted, showLoClipping, showHiClipping, colorMap);
+	}
+
+	// take over a window and display options, e.g. from a linked image
+	public void setSettings(WindowSettings settings) {
+		window_center = settings.center;
+		window_width = settings.width;
+		showInverted = settings.inverted;
+		showLoClipping = settings.showLoClipping;
+		showHiClipping = settings.showHiClipping;
+		colorMap = settings.colorMap;
+	}
+
+	// calculate the pixels of the output image from those of the input image. for
+	// a stack, only the visible slice is rendered (into its cached buffer).
+	void calculateOutputImage(WindowSettings settings) {
+		if (sliceCache != null) {
+			int slice = outputImage.getCurrentSlice();
+			renderedPixels = sliceCache.isOffHeap() ? showOffHeap(slice, settings) : sliceCache.get(slice, settings, windowingTable);
+			renderedSlice = slice;
+			return;
+		}
+		synchronized (windowingTable) {
+			renderChangedRows(settings);
+		}
+	}
+
+	// render a single image into its output buffer, but only the rows that contain values whose
+	// color has changed since the last render. nothing is allocated, the output buffer is reused.
+	private void renderChangedRows(WindowSettings settings) {
+		final short[] inPixels = (short[]) inputProcessor.getPixels();
+		final int[] outPixels = (int[]) outputImage.getProcessor().getPixels();
+		final int width = inputProcessor.getWidth();
+		int height = inputProcessor.getHeight();
+
+		// nothing to do if the table stays the same (and the output is not a preview)
+		long start = metrics.start();
+		boolean changed = windowingTable.update(settings, !adjusting);
+		if (changed) {
+			metrics.stop(RenderMetrics.Stage.TABLE, start, 0);
+		}
+		final int editedFirst = inputDirtyFirstRow;
+		final int editedEnd = inputDirtyEndRow;
+		inputDirtyFirstRow = inputDirtyEndRow = 0;
+		if (!changed && !previewShown && editedFirst >= editedEnd) {
+			return;
+		}
+		final int changedMin = windowingTable.getChangedMin();
+		final int changedMax = windowingTable.getChangedMax();
+
+		// without valid row ranges, or after a preview, every row is affected. edited rows are always rendered.
+		final boolean allRows = rowMin == null || rowRangeSource != inPixels || previewShown;
+		previewShown = false;
+		shownLevel = 0;
+		int first = height, end = 0, rows = 0;
+		for (int row = 0; row < height; row++) {
+			if (allRows || (row >= editedFirst && row < editedEnd) || (rowMax[row] >= changedMin && rowMin[row] <= changedMax)) {
+				first = Math.min(first, row);
+				end = row+1;
+				rows++;
+			}
+		}
+		addDirtyRows(first, end);
+		if (first >= end) {
+			return;
+		}
+
+		// map the affected rows to their new colors, one band of rows per task
+		start = metrics.start();
+		final int offset = first;
+		PixelEngine.forEachBand(width, end-first, new PixelEngine.RowTask() {
+			@Override
+			public void processRows(int firstRow, int endRow) {
+				for (int row = firstRow+offset; row < endRow+offset; row++) {
+					if (allRows || (row >= editedFirst && row < editedEnd) || (rowMax[row] >= changedMin && rowMin[row] <= changedMax)) {
+						windowingTable.apply(inPixels, outPixels, row*width, (row+1)*width);
 					}
-					else {
-						outPixels[index] = 0xffffff;
+				}
+			}
+		});
+		metrics.stop(RenderMetrics.Stage.RENDER, start, (long) rows*width);
+	}
+
+	// quickly render a coarse version of the output: only every step-th pixel of every
+	// step-th row is looked up, and its color fills a step x step block. for stacks,
+	// the visible slice is rendered in full resolution instead.
+	void calculatePreviewImage(WindowSettings settings, final int step) {
+		if (sliceCache != null) {
+			calculateOutputImage(settings);
+			return;
+		}
+		Roi roi = roiPreview ? getAreaRoi() : null;
+		if (roi != null) {
+			calculateRegion(settings, roi.getBounds());
+			return;
+		}
+		synchronized (windowingTable) {
+			// with a pyramid, the level with one pixel per block (or a coarser one if zoomed out)
+			MipmapPyramid pyramid = getPyramid();
+			if (pyramid != null) {
+				int level = Math.min(pyramid.getLevels()-1, Math.max(getZoomLevel(), 31 - Integer.numberOfLeadingZeros(step)));
+				renderLevel(settings, level, RenderMetrics.Stage.PREVIEW);
+				return;
+			}
+			long start = metrics.start();
+			final short[] inPixels = (short[]) inputProcessor.getPixels();
+			final int[] outPixels = (int[]) outputImage.getProcessor().getPixels();
+			final int width = inputProcessor.getWidth();
+			final int height = inputProcessor.getHeight();
+			windowingTable.update(settings, !adjusting);
+			final int[] table = windowingTable.getTable();
+
+			// one band of block rows per task
+			PixelEngine.forEachBand(width, (height + step - 1) / step, new PixelEngine.RowTask() {
+				@Override
+				public void processRows(int firstBlockRow, int endBlockRow) {
+					for (int row = firstBlockRow*step; row < Math.min(height, endBlockRow*step); row += step) {
+						
+						// fill the first row of the blocks ...
+						int start = row*width;
+						for (int x = 0; x < width; x += step) {
+							int color = table[inPixels[start+x] & 0xffff];
+							int end = Math.min(width, x+step);
+							for (int index = start+x; index < start+end; index++) {
+								outPixels[index] = color;
+							}
+						}
+						
+						// ... and copy it to the other rows of the blocks
+						for (int copy = row+1; copy < Math.min(height, row+step); copy++) {
+							System.arraycopy(outPixels, start, outPixels, copy*width, width);
+						}
 					}
 				}
+			});
+			previewShown = true;
+			shownLevel = 0;
+			addDirtyRows(0, height);
+			metrics.stop(RenderMetrics.Stage.PREVIEW, start, (long) width*height);
+		}
+	}
+
+	// render the preview of a single image from a level of the pyramid: every pixel of the level
+	// is looked up once, and its color fills the block of output pixels it stands for. as at
+	// full resolution, only the block rows with a changed color are rendered again.
+	private void renderLevel(WindowSettings settings, final int level, RenderMetrics.Stage stage) {
+		if (level == 0) {
+			renderChangedRows(settings);
+			return;
+		}
+		final MipmapPyramid pyramid = getPyramid();
+		if (pyramid == null) {
+			renderChangedRows(settings);
+			return;
+		}
+		final short[] levelPixels = pyramid.getPixels(level);
+		final int levelWidth = pyramid.getWidth(level);
+		final char[] levelMin = pyramid.getRowMin(level);
+		final char[] levelMax = pyramid.getRowMax(level);
+		final int[] outPixels = (int[]) outputImage.getProcessor().getPixels();
+		final int width = inputProcessor.getWidth();
+		final int height = inputProcessor.getHeight();
+		final int block = 1 << level;
+
+		long start = metrics.start();
+		boolean changed = windowingTable.update(settings, !adjusting);
+		if (changed) {
+			metrics.stop(RenderMetrics.Stage.TABLE, start, 0);
+		}
+
+		// the pyramid is already up to date with the edited rows, their blocks have to be rendered
+		final int editedFirst = inputDirtyFirstRow >> level;
+		final int editedEnd = inputDirtyFirstRow < inputDirtyEndRow ? ((inputDirtyEndRow-1) >> level) + 1 : 0;
+		inputDirtyFirstRow = inputDirtyEndRow = 0;
+		final boolean allRows = shownLevel != level || shownPyramid != pyramid;
+		if (!changed && !allRows && editedFirst >= editedEnd) {
+			return;
+		}
+		final int changedMin = windowingTable.getChangedMin();
+		final int changedMax = windowingTable.getChangedMax();
+		final int[] table = windowingTable.getTable();
+		int first = levelMin.length, end = 0, rows = 0;
+		for (int row = 0; row < levelMin.length; row++) {
+			if (allRows || (row >= editedFirst && row < editedEnd) || (levelMax[row] >= changedMin && levelMin[row] <= changedMax)) {
+				first = Math.min(first, row);
+				end = row+1;
+				rows++;
 			}
 		}
-		if (showInverted) {
-			for (int i=0; i<inputProcessor.getWidth(); i++) {
-				for (int j = 0; j < inputProcessor.getHeight(); j++) {
-					int index = j * inputProcessor.getWidth()+i;
-					int red = 255-(int)(outPixels[index] & 0xff0000)>>16;
-					int green = 255-(int)(outPixels[index] & 0x00ff00)>>8;
-					int blue = 255-(int)(outPixels[index] & 0x0000ff);
-					outPixels[index] = (int)((red & 0xff)<<16)+((green & 0xff)<<8) + (blue & 0xff); 
+		previewShown = true;
+		shownLevel = level;
+		shownPyramid = pyramid;
+		addDirtyRows(Math.min(height, first*block), Math.min(height, end*block));
+		if (first >= end) {
+			return;
+		}
+
+		start = metrics.start();
+		final int offset = first;
+		PixelEngine.forEachBand(levelWidth, end-first, new PixelEngine.RowTask() {
+			@Override
+			public void processRows(int firstRow, int endRow) {
+				for (int row = firstRow+offset; row < endRow+offset; row++) {
+					if (!(allRows || (row >= editedFirst && row < editedEnd) || (levelMax[row] >= changedMin && levelMin[row] <= changedMax))) {
+						continue;
+					}
+
+					// look up the colors of the level row into the start of the first output row of the
+					// blocks, and stretch them over it from its end, where no color is read any more ...
+					int levelStart = row*levelWidth;
+					int y = row*block;
+					int start = y*width;
+					for (int x = 0; x < levelWidth; x++) {
+						outPixels[start+x] = table[levelPixels[levelStart+x] & 0xffff];
+					}
+					for (int x = width-1; x > 0; x--) {
+						outPixels[start+x] = outPixels[start + (x >> level)];
+					}
+
+					// ... and copy it to the other rows of the blocks
+					for (int copy = y+1; copy < Math.min(height, y+block); copy++) {
+						System.arraycopy(outPixels, start, outPixels, copy*width, width);
+					}
 				}
 			}
+		});
+		metrics.stop(stage, start, (long) rows*block*width);
+	}
+
+	// render only the given region of a single image at full resolution, e.g. the selection
+	// while a slider is dragged. the rest of the output keeps its old colors until the
+	// next full render, which renders every row because the output counts as a preview.
+	private void calculateRegion(WindowSettings settings, Rectangle bounds) {
+		final int width = inputProcessor.getWidth();
+		final Rectangle region = bounds.intersection(new Rectangle(width, inputProcessor.getHeight()));
+		synchronized (windowingTable) {
+			long start = metrics.start();
+			final short[] inPixels = (short[]) inputProcessor.getPixels();
+			final int[] outPixels = (int[]) outputImage.getProcessor().getPixels();
+			windowingTable.update(settings, !adjusting);
+			if (!region.isEmpty()) {
+				PixelEngine.forEachBand(region.width, region.height, new PixelEngine.RowTask() {
+					@Override
+					public void processRows(int firstRow, int endRow) {
+						for (int row = region.y+firstRow; row < region.y+endRow; row++) {
+							windowingTable.apply(inPixels, outPixels, row*width+region.x, row*width+region.x+region.width);
+						}
+					}
+				});
+			}
+			previewShown = true;
+			shownLevel = 0;
+			addDirtyRows(region.y, region.y + Math.max(0, region.height));
+			metrics.stop(RenderMetrics.Stage.PREVIEW, start, (long) Math.max(0, region.width)*Math.max(0, region.height));
 		}
+	}
 
+	// map one image or slice to its output colors, using the given table
+	private void render(final short[] inPixels, final int[] outPixels, WindowSettings settings, final WindowingTable table) {
+		final int width = inputProcessor.getWidth();
+
+		// window, inversion and clipping colors are all folded into one lookup table,
+		// which is only rebuilt if one of the settings has changed
+		updateTable(table, settings);
 		
+		// map every input pixel to its output color, one band of rows per task
+		long start = metrics.start();
+		PixelEngine.forEachBand(width, inputProcessor.getHeight(), new PixelEngine.RowTask() {
+			@Override
+			public void processRows(int firstRow, int endRow) {
+				table.apply(inPixels, outPixels, firstRow*width, endRow*width);
+			}
+		});
+		metrics.stop(RenderMetrics.Stage.RENDER, start, outPixels.length);
 	}
 
-	// go through pixels of the input image and find min/max etc.
-	private void findMinMaxPixelValue() {
-		
-		short[] pixels = (short[]) inputProcessor.getPixels();
-		int maxValue = 0;
-		int minValue = 65535;
-		for (int i=0; i<inputProcessor.getWidth(); i++) {
-			for (int j = 0; j < inputProcessor.getHeight(); j++) {
-				int index = j * inputProcessor.getWidth()+i;
-				int zwischenPixel = pixels[index] & 0xffff;
-				if (zwischenPixel>maxValue) {
-					maxValue = zwischenPixel;
+	// same for a slice that is read straight from a memory mapped file
+	private void render(final ShortBuffer inPixels, final int[] outPixels, WindowSettings settings, final WindowingTable table) {
+		final int width = inputProcessor.getWidth();
+		updateTable(table, settings);
+		long start = metrics.start();
+		PixelEngine.forEachBand(width, inputProcessor.getHeight(), new PixelEngine.RowTask() {
+			@Override
+			public void processRows(int firstRow, int endRow) {
+				table.apply(inPixels, outPixels, firstRow*width, endRow*width);
+			}
+		});
+		metrics.stop(RenderMetrics.Stage.RENDER, start, outPixels.length);
+	}
+
+	// map one image or slice into a direct buffer, for slices that are kept off heap
+	private void render(final short[] inPixels, final IntBuffer outPixels, WindowSettings settings, final WindowingTable table) {
+		final int width = inputProcessor.getWidth();
+		updateTable(table, settings);
+		long start = metrics.start();
+		PixelEngine.forEachBand(width, inputProcessor.getHeight(), new PixelEngine.RowTask() {
+			@Override
+			public void processRows(int firstRow, int endRow) {
+				table.apply(inPixels, outPixels, firstRow*width, endRow*width);
+			}
+		});
+		metrics.stop(RenderMetrics.Stage.RENDER, start, outPixels.capacity());
+	}
+
+	// same for a slice that is read straight from a memory mapped file
+	private void render(final ShortBuffer inPixels, final IntBuffer outPixels, WindowSettings settings, final WindowingTable table) {
+		final int width = inputProcessor.getWidth();
+		updateTable(table, settings);
+		long start = metrics.start();
+		PixelEngine.forEachBand(width, inputProcessor.getHeight(), new PixelEngine.RowTask() {
+			@Override
+			public void processRows(int firstRow, int endRow) {
+				table.apply(inPixels, outPixels, firstRow*width, endRow*width);
+			}
+		});
+		metrics.stop(RenderMetrics.Stage.RENDER, start, outPixels.capacity());
+	}
+
+	// bring the table up to date, timing it if it has to be rebuilt
+	private void updateTable(WindowingTable table, WindowSettings settings) {
+		long start = metrics.start();
+		if (table.update(settings, !adjusting)) {
+			metrics.stop(RenderMetrics.Stage.TABLE, start, 0);
+		}
+	}
+
+	// go through pixels of the input image (all slices of a stack) once, build the histogram and find min/max.
+	// with an area selection, only the selected pixels are counted (in every slice of a stack).
+	void findMinMaxPixelValue() {
+		long start = metrics.start();
+		Roi roi = getAreaRoi();
+		histogramRoi = null;
+		if (roi != null) {
+			histogramSource = inputStack != null ? inputStack : inputProcessor.getPixels();
+			histogram = regionHistogram(roi);
+			histogramRoi = (Roi) roi.clone();
+		}
+		if (histogramRoi == null || histogram.getTotal() == 0) {
+			// no selection, or one that is outside of the image: use the whole image
+			histogramRoi = null;
+			findImageMinMax();
+		}
+		min_value = histogram.getMin();
+		max_value = histogram.getMax();
+		takeVisibleShadow();
+		metrics.stop(RenderMetrics.Stage.HISTOGRAM, start, histogram.getTotal());
+	}
+
+	// the histogram of the selected pixels of the input image (in all slices of a stack)
+	private Histogram16 regionHistogram(Roi roi) {
+		ImageProcessor mask = roi.getMask();
+		byte[] maskPixels = mask != null ? (byte[]) mask.getPixels() : null;
+		if (inputStack != null) {
+			return Histogram16.ofRegion(inputStack, roi.getBounds(), maskPixels);
+		}
+		return Histogram16.ofRegion((short[]) inputProcessor.getPixels(), inputProcessor.getWidth(),
+				inputProcessor.getHeight(), roi.getBounds(), maskPixels);
+	}
+
+	// when following edits: remember the visible pixels as they have been counted
+	private void takeVisibleShadow() {
+		if (followingEdits) {
+			int slice = inputStack != null ? inputImage.getCurrentSlice() : 1;
+			Object pixels = inputStack != null ? inputStack.getPixels(slice) : inputProcessor.getPixels();
+			takeShadow(pixels instanceof short[] ? (short[]) pixels : null, slice);
+		}
+	}
+
+	// follow the edits of a slice from here on, remembering its pixels as they are now to
+	// compare them after the next edit, unless they are too many for a copy
+	private void takeShadow(short[] pixels, int slice) {
+		followedSlice = slice;
+		if (pixels == null || pixels.length > shadowMaxPixels) {
+			shadowPixels = null;
+			return;
+		}
+		if (shadowPixels == null || shadowPixels.length != pixels.length) {
+			shadowPixels = new short[pixels.length];
+		}
+		System.arraycopy(pixels, 0, shadowPixels, 0, pixels.length);
+	}
+
+	// called when the input image has been updated, e.g. by a filter or by filling a selection.
+	// the rows of the edited region that differ from the shadow copy are taken out of the
+	// histogram with their old values and counted again with their new ones, so the statistics
+	// stay correct at the cost of the edited region: the bounds of the area selection, within
+	// which ImageJ edits, or the whole image without one. an image without a shadow copy, or a
+	// stack whose visible slice has been edited (maybe with all others, by a filter that
+	// processes the stack), is counted again as a whole.
+	void inputChanged() {
+		// the slices of a stack to render again. the slice cache takes the lock of a slice before
+		// the lock of the table, so they are invalidated after the table has been let go.
+		int editedSlice = 0;
+		boolean editedAll = false;
+		synchronized (windowingTable) {
+			if (!followingEdits || histogram == null) {
+				return;
+			}
+			int width = inputProcessor.getWidth();
+			int height = inputProcessor.getHeight();
+			int slice = inputStack != null ? inputImage.getCurrentSlice() : 1;
+			Object current = inputStack != null ? inputStack.getPixels(slice) : inputProcessor.getPixels();
+			if (!(current instanceof short[]) || ((short[]) current).length != width*height) {
+				return;
+			}
+			short[] pixels = (short[]) current;
+			boolean rescan = false;
+			if (slice != followedSlice) {
+				// ImageJ drops the snapshot of the processor when it shows another slice, and takes
+				// one before it edits: without a snapshot, nothing has been edited since
+				ImageProcessor ip = inputImage.getProcessor();
+				if (ip == null || ip.getSnapshotPixels() == null) {
+					takeShadow(pixels, slice);
+					return;
+				}
+				rescan = true;
+			}
+			else if (shadowPixels == null || shadowPixels.length != pixels.length) {
+				rescan = true;
+			}
+
+			// find the edited rows and count them again, or note that the selection has to be
+			long start = metrics.start();
+			boolean rowRanges = inputStack == null && rowMin != null && rowMin.length == height;
+			Rectangle roiBounds = histogramRoi != null ? histogramRoi.getBounds() : null;
+			Rectangle region = getEditedRegion(width, height);
+			boolean roiEdited = false;
+			int first = height, end = 0, rows = 0;
+			for (int row = region.y; row < region.y + region.height && !rescan; row++) {
+				int from = row*width + region.x, to = from + region.width;
+				if (equalRows(pixels, shadowPixels, from, to)) {
+					continue;
 				}
-				if (zwischenPixel<minValue) {
-					minValue = zwischenPixel;
+				if (inputStack != null) {
+					rescan = true;
+					break;
 				}
+				if (roiBounds == null) {
+					histogram.remove(shadowPixels, from, to);
+					histogram.add(pixels, from, to);
+				}
+				else if (row >= roiBounds.y && row < roiBounds.y+roiBounds.height) {
+					roiEdited = true;
+				}
+				if (rowRanges) {
+					int min = 65535, max = 0;
+					for (int index = row*width; index < (row+1)*width; index++) {
+						int value = pixels[index] & 0xffff;
+						min = Math.min(min, value);
+						max = Math.max(max, value);
+					}
+					rowMin[row] = (char) min;
+					rowMax[row] = (char) max;
+				}
+				System.arraycopy(pixels, from, shadowPixels, from, region.width);
+				first = Math.min(first, row);
+				end = row+1;
+				rows++;
+			}
+			if (rescan) {
+				// the row ranges are found again for the whole image only, not for a selection
+				rowRangeSource = null;
+				findMinMaxPixelValue();
+				first = 0;
+				end = height;
+				editedAll = sliceCache != null;
+			}
+			else {
+				if (first >= end) {
+					return;
+				}
+				if (roiEdited) {
+					histogram = regionHistogram(histogramRoi);
+				}
+				histogramSource = inputStack != null ? inputStack : pixels;
+				if (rowRanges) {
+					rowRangeSource = pixels;
+				}
+				min_value = histogram.getMin();
+				max_value = histogram.getMax();
+				metrics.stop(RenderMetrics.Stage.HISTOGRAM, start, (long) region.width*rows);
+			}
+			pyramidEdits++;
+			MipmapPyramid pyramid = getPyramid();
+			if (pyramid != null) {
+				pyramid.update(first, end);
 			}
+			if (sliceCache != null) {
+				editedSlice = slice;
+			}
+			else if (inputDirtyFirstRow < inputDirtyEndRow) {
+				inputDirtyFirstRow = Math.min(inputDirtyFirstRow, first);
+				inputDirtyEndRow = Math.max(inputDirtyEndRow, end);
+			}
+			else {
+				inputDirtyFirstRow = first;
+				inputDirtyEndRow = end;
+			}
+		}
+		if (editedAll) {
+			sliceCache.invalidateAll();
+		}
+		else if (editedSlice > 0) {
+			sliceCache.invalidate(editedSlice);
+		}
+
+		// show the edit and the new value range
+		update();
+		if (dialog != null) {
+			EventQueue.invokeLater(new Runnable() {
+				@Override
+				public void run() {
+					dialog.updateViewController();
+				}
+			});
 		}
-		max_value = maxValue;
-		min_value = minValue;
 	}
 
-	// this is called from the controller if anything has changed
+	private static boolean equalRows(short[] pixels, short[] other, int from, int to) {
+		for (int index = from; index < to; index++) {
+			if (pixels[index] != other[index]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	// the histogram of all pixels, for single images with the value range of every row
+	private void findImageMinMax() {
+		if (inputStack != null) {
+			histogramSource = inputStack;
+			histogram = Histogram16.of(inputStack);
+		}
+		else {
+			int height = inputProcessor.getHeight();
+			if (rowMin == null || rowMin.length != height) {
+				rowMin = new char[height];
+				rowMax = new char[height];
+			}
+			histogramSource = inputProcessor.getPixels();
+			histogram = Histogram16.of((short[]) histogramSource, inputProcessor.getWidth(), height, rowMin, rowMax);
+			rowRangeSource = histogramSource;
+		}
+	}
+
+	// this is called from the controller if anything has changed. the output image
+	// is rendered in the background, a burst of changes results in a single render.
 	public void update() {
-		if(outputImage != null) {
-			calculateOutputImage();
-			outputImage.show();
-			outputImage.updateAndDraw();
+		update(false);
+	}
+
+	// same, but a coarse preview is good enough for now, e.g. while a slider is dragged.
+	// the controller must call update() once the input has settled. linked images
+	// take over the settings and are rendered as well.
+	public void update(boolean preview) {
+		if (link != null) {
+			link.update(this, preview);
+		}
+		else {
+			scheduleRender(preview);
+		}
+	}
+
+	// render the output of this image in the background
+	void scheduleRender(boolean preview) {
+		adjusting = preview;
+		if (!preview) {
+			// the display options may have changed, the preset tables must match them
+			precompilePresets();
+		}
+		if(outputImage != null && !closed) {
+			// with a selection, a preview costs only as much as the selection, whatever the image size
+			boolean large = (long)inputProcessor.getWidth()*inputProcessor.getHeight() >= previewMinPixels
+					|| (roiPreview && sliceCache == null && getAreaRoi() != null);
+			int step = preview && large ? previewStep : 1;
+			scheduler.schedule(new RenderRequest(getSettings(), step));
 		}		
 	}
 
+	// switch to the window of a preset; its table has been built in advance, so this costs
+	// a lookup in the table cache and one mapping pass
+	public void applyPreset(WindowPreset preset) {
+		WindowSettings settings = preset.toSettings(getSettings(), getCalibration());
+		window_center = settings.center;
+		window_width = settings.width;
+		update();
+	}
+
+	// the preset that is chosen with the given key, null if there is none
+	public WindowPreset getPreset(KeyStroke key) {
+		if (presets != null && key != null) {
+			for (WindowPreset preset : presets) {
+				if (key.equals(preset.key)) {
+					return preset;
+				}
+			}
+		}
+		return null;
+	}
+
+	private Calibration getCalibration() {
+		return inputImage != null ? inputImage.getCalibration() : null;
+	}
+
+	// build the tables of the presets for the current display options on the render workers
+	// and pin them in the table cache, the tables for other options are released
+	void precompilePresets() {
+		List<WindowSettings> target = new ArrayList<WindowSettings>();
+		if (presets != null) {
+			WindowSettings options = getSettings();
+			for (WindowPreset preset : presets) {
+				target.add(preset.toSettings(options, getCalibration()));
+			}
+		}
+		if (!target.equals(presetTarget)) {
+			presetTarget = target;
+			RenderScheduler.getSharedWorkers().execute(pinPresets);
+		}
+	}
+
+	// release the pinned tables, e.g. when the input is closed
+	void releasePresets() {
+		presetTarget = Collections.emptyList();
+		RenderScheduler.getSharedWorkers().execute(pinPresets);
+	}
+
+	// bring the pinned tables in line with the latest request. runs one at a time, so a
+	// table is never unpinned before it has been pinned.
+	private final Runnable pinPresets = new Runnable() {
+		@Override
+		public void run() {
+			synchronized (presetLock) {
+				List<WindowSettings> target = presetTarget;
+				if (target.equals(presetsPinned)) {
+					return;
+				}
+				for (WindowSettings settings : target) {
+					WindowingTable.precompile(settings, TableCache.getShared());
+				}
+				for (WindowSettings settings : presetsPinned) {
+					TableCache.getShared().unpin(settings);
+				}
+				presetsPinned = target;
+			}
+		}
+	};
+
+	// the input has gone: stop following it, leave the linked images and give everything
+	// back that was taken for it, including the file of a memory mapped stack
+	private void close() {
+		closed = true;
+		LinkedWindowing link = this.link;
+		if (link != null) {
+			link.remove(this);
+			if (dialog != null) {
+				handOverDialog(link);
+			}
+		}
+		ImagePlus.removeImageListener(inputListener);
+		releasePresets();
+		pyramid = null;
+		followingEdits = false;
+		shadowPixels = null;
+		if (sliceCache != null) {
+			// stops its prefetch thread
+			sliceCache.dispose();
+		}
+		if (inputStack instanceof MappedRawStack) {
+			try {
+				((MappedRawStack) inputStack).close();
+			} catch (IOException e) {
+				IJ.log("Display16BitAsRGB: "+e.getMessage());
+			}
+		}
+	}
+
+	// the image with the dialog of linked images leaves them: the next one gets a dialog
+	// in the same place to drive the others, or the dialog goes if none is left
+	private void handOverDialog(final LinkedWindowing link) {
+		final Display16BitAsRGBDialog old = dialog;
+		dialog = null;
+		EventQueue.invokeLater(new Runnable() {
+			@Override
+			public void run() {
+				List<Display16BitAsRGB_> members = link.getMembers();
+				if (!members.isEmpty() && old.isVisible()) {
+					Display16BitAsRGB_ driver = members.get(0);
+					driver.min_value = link.getMinValue();
+					driver.max_value = link.getMaxValue();
+					driver.dialog = new Display16BitAsRGBDialog(driver);
+					driver.dialog.setLocation(old.getLocation());
+					driver.dialog.setVisible(true);
+					IJ.showStatus("Live-Fensterung: jetzt \u00fcber "+driver.getInputImage().getTitle());
+				}
+				old.dispose();
+			}
+		});
+	}
+
+	// called by LinkedWindowing when the image is linked to others or unlinked (null)
+	void setLink(LinkedWindowing link) {
+		this.link = link;
+	}
+
+	public LinkedWindowing getLink() {
+		return link;
+	}
+
+	public ImagePlus getInputImage() {
+		return inputImage;
+	}
+
+	// the scheduler that renders the output, e.g. to query its latency
+	public RenderScheduler<RenderRequest> getScheduler() {
+		return scheduler;
+	}
+
+	// timing of the stages of rendering, see RenderMetrics
+	public RenderMetrics getMetrics() {
+		return metrics;
+	}
+
 }
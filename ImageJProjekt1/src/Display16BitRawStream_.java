@@ -0,0 +1,58 @@
+import java.io.File;
+import java.io.IOException;
+
+import ij.IJ;
+import ij.ImagePlus;
+import ij.gui.GenericDialog;
+import ij.io.OpenDialog;
+import ij.plugin.PlugIn;
+
+// displays a raw 16 bit volume that may be larger than the Java heap. the slices
+// are memory mapped instead of read into the heap, and windowed one at a time.
+public class Display16BitRawStream_ implements PlugIn {
+
+	// parameters of the last raw file, offered again next time
+	private static int width = 512, height = 512, slices = 0;
+	private static long offset = 0;
+	private static boolean littleEndian = false;
+
+	@Override
+	public void run(String arg) {
+
+		// ask for the raw file and its layout
+		OpenDialog od = new OpenDialog("Raw 16 bit volume");
+		if (od.getPath() == null) {
+			return;
+		}
+		GenericDialog gd = new GenericDialog("Raw 16 bit volume");
+		gd.addNumericField("Width (pix):", width, 0);
+		gd.addNumericField("Height (pix):", height, 0);
+		gd.addNumericField("Slices (0 = all):", slices, 0);
+		gd.addNumericField("Header (bytes):", offset, 0);
+		gd.addCheckbox("Little-endian byte order", littleEndian);
+		gd.showDialog();
+		if (gd.wasCanceled()) {
+			return;
+		}
+		width = (int) gd.getNextNumber();
+		height = (int) gd.getNextNumber();
+		slices = (int) gd.getNextNumber();
+		offset = (long) gd.getNextNumber();
+		littleEndian = gd.getNextBoolean();
+
+		MappedRawStack stack;
+		try {
+			stack = new MappedRawStack(new File(od.getPath()), width, height, slices, offset, littleEndian);
+		} catch (IOException e) {
+			IJ.error("Raw 16 bit volume", e.getMessage());
+			return;
+		}
+
+		// the input is not displayed; the windowing plugin works on its slices directly
+		// and closes the file when the output is closed
+		ImagePlus input = new ImagePlus(od.getFileName(), stack);
+		Display16BitAsRGB_ plugin = new Display16BitAsRGB_();
+		plugin.setup("", input);
+		plugin.run(input.getProcessor());
+	}
+}
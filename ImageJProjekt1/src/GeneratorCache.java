@@ -0,0 +1,135 @@
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import ij.ImageListener;
+import ij.ImagePlus;
+
+// the images generated so far, by pattern. an image that is asked for again is
+// returned instead of generated again, as long as it is unchanged. the cache holds
+// at most maxBytes of pixels, least recently used images are dropped first. closed
+// images are dropped as well, so their pixels can be garbage collected.
+public class GeneratorCache implements ImageListener {
+
+	// pattern -> generated image, in order of access
+	private final LinkedHashMap<GeneratorPattern, ImagePlus> images = new LinkedHashMap<GeneratorPattern, ImagePlus>(16, 0.75f, true);
+
+	// pixel memory of the cached images and its limit
+	private long bytes = 0, maxBytes;
+
+	// statistics
+	private long hits = 0, misses = 0, evictions = 0;
+
+	public GeneratorCache(long maxBytes) {
+		this.maxBytes = maxBytes;
+		ImagePlus.addImageListener(this);
+	}
+
+	// the image of the pattern, generated only if it's not in the cache (or has been changed since)
+	public synchronized ImagePlus get(String title, GeneratorPattern pattern) {
+		ImagePlus image = images.get(pattern);
+		if (image != null && !image.changes && image.getProcessor() != null) {
+			hits++;
+			return image;
+		}
+		if (image != null) {
+			remove(pattern);
+		}
+		misses++;
+		image = GeneratorEngine.createImage(title, pattern);
+		images.put(pattern, image);
+		bytes += sizeOf(image);
+		evict();
+		return image;
+	}
+
+	// drop least recently used images until the cache fits into maxBytes, but keep the newest
+	private void evict() {
+		Iterator<Map.Entry<GeneratorPattern, ImagePlus>> iterator = images.entrySet().iterator();
+		while (bytes > maxBytes && images.size() > 1) {
+			Map.Entry<GeneratorPattern, ImagePlus> eldest = iterator.next();
+			bytes -= sizeOf(eldest.getValue());
+			iterator.remove();
+			evictions++;
+		}
+	}
+
+	private void remove(GeneratorPattern pattern) {
+		ImagePlus image = images.remove(pattern);
+		if (image != null) {
+			bytes -= sizeOf(image);
+		}
+	}
+
+	private static long sizeOf(ImagePlus image) {
+		return (long) image.getWidth()*image.getHeight()*image.getStackSize()*image.getBytesPerPixel();
+	}
+
+	// a closed image is dropped, it would be flushed anyway
+	@Override
+	public synchronized void imageClosed(ImagePlus image) {
+		Iterator<Map.Entry<GeneratorPattern, ImagePlus>> iterator = images.entrySet().iterator();
+		while (iterator.hasNext()) {
+			Map.Entry<GeneratorPattern, ImagePlus> entry = iterator.next();
+			if (entry.getValue() == image) {
+				bytes -= sizeOf(image);
+				iterator.remove();
+				evictions++;
+				return;
+			}
+		}
+	}
+
+	@Override
+	public void imageOpened(ImagePlus image) {
+	}
+
+	@Override
+	public void imageUpdated(ImagePlus image) {
+	}
+
+	// change the memory limit, dropping images if necessary
+	public synchronized void setMaxBytes(long maxBytes) {
+		this.maxBytes = maxBytes;
+		evict();
+	}
+
+	public synchronized long getMaxBytes() {
+		return maxBytes;
+	}
+
+	// pixel memory held by the cache
+	public synchronized long getBytes() {
+		return bytes;
+	}
+
+	public synchronized int getSize() {
+		return images.size();
+	}
+
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	// number of images dropped for memory or because they were closed
+	public synchronized long getEvictions() {
+		return evictions;
+	}
+
+	// drop all images and stop listening for closed images
+	public synchronized void dispose() {
+		ImagePlus.removeImageListener(this);
+		images.clear();
+		bytes = 0;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "Cache: "+images.size()+" images, "+(bytes/1024)+" of "+(maxBytes/1024)+" KB, "
+				+hits+" hits, "+misses+" misses, "+evictions+" evicted";
+	}
+}
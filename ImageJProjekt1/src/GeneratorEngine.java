@@ -0,0 +1,90 @@
+import ij.ImagePlus;
+import ij.process.ByteProcessor;
+import ij.process.ColorProcessor;
+
+// generates images, or tiles of them, from patterns. rows are computed in parallel
+// and written in memory order; for patterns whose rows are all equal, only the
+// first row is computed and then copied.
+public class GeneratorEngine {
+
+	// generate the whole pattern into a new 8 bit or RGB image
+	public static ImagePlus createImage(String title, GeneratorPattern pattern) {
+		int width = pattern.getWidth();
+		int height = pattern.getHeight();
+		if (pattern.getBitDepth() == 8) {
+			byte[] pixels = new byte[width*height];
+			fill(pattern, pixels);
+			return new ImagePlus(title, new ByteProcessor(width, height, pixels));
+		}
+		int[] pixels = new int[width*height];
+		fill(pattern, pixels);
+		return new ImagePlus(title, new ColorProcessor(width, height, pixels));
+	}
+
+	// generate one tile of the pattern into a new image; the rest of the pattern is not computed
+	public static ImagePlus createTile(String title, GeneratorPattern pattern, int x, int y, int width, int height) {
+		if (pattern.getBitDepth() == 8) {
+			byte[] pixels = new byte[width*height];
+			fillTile(pattern, x, y, width, height, pixels);
+			return new ImagePlus(title, new ByteProcessor(width, height, pixels));
+		}
+		int[] pixels = new int[width*height];
+		fillTile(pattern, x, y, width, height, pixels);
+		return new ImagePlus(title, new ColorProcessor(width, height, pixels));
+	}
+
+	// compute all pixels of a grayscale pattern
+	public static void fill(GeneratorPattern pattern, byte[] pixels) {
+		fillTile(pattern, 0, 0, pattern.getWidth(), pattern.getHeight(), pixels);
+	}
+
+	// compute all pixels of an RGB pattern
+	public static void fill(GeneratorPattern pattern, int[] pixels) {
+		fillTile(pattern, 0, 0, pattern.getWidth(), pattern.getHeight(), pixels);
+	}
+
+	// compute the tile of a grayscale pattern with the upper left corner x, y
+	// into pixels, which holds its rows one after the other
+	public static void fillTile(final GeneratorPattern pattern, final int x, final int y, final int width, int height, final byte[] pixels) {
+		final boolean invariant = pattern.isRowInvariant();
+		if (invariant && height > 0) {
+			pattern.fillRow(y, x, width, pixels, 0);
+		}
+		PixelEngine.forEachBand(width, height, new PixelEngine.RowTask() {
+			@Override
+			public void processRows(int firstRow, int endRow) {
+				for (int row = firstRow; row < endRow; row++) {
+					if (!invariant) {
+						pattern.fillRow(y+row, x, width, pixels, row*width);
+					}
+					else if (row > 0) {
+						System.arraycopy(pixels, 0, pixels, row*width, width);
+					}
+				}
+			}
+		});
+		pattern.release();
+	}
+
+	// same for an RGB pattern
+	public static void fillTile(final GeneratorPattern pattern, final int x, final int y, final int width, int height, final int[] pixels) {
+		final boolean invariant = pattern.isRowInvariant();
+		if (invariant && height > 0) {
+			pattern.fillRow(y, x, width, pixels, 0);
+		}
+		PixelEngine.forEachBand(width, height, new PixelEngine.RowTask() {
+			@Override
+			public void processRows(int firstRow, int endRow) {
+				for (int row = firstRow; row < endRow; row++) {
+					if (!invariant) {
+						pattern.fillRow(y+row, x, width, pixels, row*width);
+					}
+					else if (row > 0) {
+						System.arraycopy(pixels, 0, pixels, row*width, width);
+					}
+				}
+			}
+		});
+		pattern.release();
+	}
+}
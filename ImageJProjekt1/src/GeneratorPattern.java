@@ -0,0 +1,64 @@
+// a synthetic image of a fixed size that is computed row by row. any part of
+// a row can be computed on its own, without computing the rest of the image.
+// two patterns are equal if they are of the same kind, size and parameters,
+// i.e. if they produce the same pixels.
+public abstract class GeneratorPattern {
+
+	// size of the whole image
+	protected final int width, height;
+
+	protected GeneratorPattern(int width, int height) {
+		this.width = width;
+		this.height = height;
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+
+	// 8 for grayscale patterns, 24 for RGB patterns
+	public abstract int getBitDepth();
+
+	// true if all rows are equal, so that one row can be computed and copied to the others
+	public boolean isRowInvariant() {
+		return false;
+	}
+
+	// compute the pixels x0..x0+n-1 of row y of a grayscale pattern into pixels[offset..offset+n-1]
+	public void fillRow(int y, int x0, int n, byte[] pixels, int offset) {
+		throw new UnsupportedOperationException(getClass().getName()+" is not a grayscale pattern");
+	}
+
+	// compute the pixels x0..x0+n-1 of row y of an RGB pattern into pixels[offset..offset+n-1]
+	public void fillRow(int y, int x0, int n, int[] pixels, int offset) {
+		throw new UnsupportedOperationException(getClass().getName()+" is not an RGB pattern");
+	}
+
+	// the rows that were asked for have been computed: give back what was allocated to compute
+	// them, e.g. row buffers. the pattern can still be used afterwards.
+	public void release() {
+	}
+
+	@Override
+	public boolean equals(Object other) {
+		if (other == null || other.getClass() != getClass()) {
+			return false;
+		}
+		GeneratorPattern pattern = (GeneratorPattern) other;
+		return width == pattern.width && height == pattern.height;
+	}
+
+	@Override
+	public int hashCode() {
+		return (getClass().hashCode()*31 + width)*31 + height;
+	}
+
+	@Override
+	public String toString() {
+		return getClass().getSimpleName()+" "+width+"x"+height;
+	}
+}
@@ -0,0 +1,278 @@
+import java.util.Arrays;
+
+// the patterns of Bildgenerator_ as row kernels. everything that is constant
+// for a row (or the whole image) is computed once, not per pixel.
+public class GeneratorPatterns {
+
+	// 8 bit horizontal gradient from black to white
+	public static class GradientGreyscale extends GeneratorPattern {
+
+		public GradientGreyscale(int width, int height) {
+			super(width, height);
+		}
+
+		@Override
+		public int getBitDepth() {
+			return 8;
+		}
+
+		@Override
+		public boolean isRowInvariant() {
+			return true;
+		}
+
+		@Override
+		public void fillRow(int y, int x0, int n, byte[] pixels, int offset) {
+			for (int i = 0; i < n; i++) {
+				// calculate interpolated value between black and white
+				double interpol = (x0+i) / (double) (width - 1);
+				pixels[offset+i] = (byte) (0 * (1 - interpol) + 255 * interpol);
+			}
+		}
+	}
+
+	// horizontal gradient from red to green
+	public static class GradientRedGreen extends GeneratorPattern {
+
+		public GradientRedGreen(int width, int height) {
+			super(width, height);
+		}
+
+		@Override
+		public int getBitDepth() {
+			return 24;
+		}
+
+		@Override
+		public boolean isRowInvariant() {
+			return true;
+		}
+
+		@Override
+		public void fillRow(int y, int x0, int n, int[] pixels, int offset) {
+			for (int i = 0; i < n; i++) {
+				// calculate interpolated gradient value
+				double interpol = (x0+i) / (double) (width - 1);
+				int value = (int) (0 * (1 - interpol) + 255 * interpol);
+				pixels[offset+i] = (((255 - value) & 0xff) << 16) + ((value & 0xff) << 8);
+			}
+		}
+	}
+
+	// average of a horizontal red-green gradient and a vertical gradient to green
+	public static class GradientRedGreenYellow extends GeneratorPattern {
+
+		public GradientRedGreenYellow(int width, int height) {
+			super(width, height);
+		}
+
+		@Override
+		public int getBitDepth() {
+			return 24;
+		}
+
+		@Override
+		public void fillRow(int y, int x0, int n, int[] pixels, int offset) {
+
+			// second interpolated gradient value, the same for the whole row
+			double interpolY = y / (double) (height - 1);
+			double green2 = interpolY*255;
+
+			for (int i = 0; i < n; i++) {
+				// first interpolated gradient value
+				double interpolX = (x0+i) / (double) (width - 1);
+
+				// calculate the average from both values
+				double red1 = (1-interpolX)*255;
+				double green1 = interpolX*255;
+				int red = (int) ((red1+255)/2);
+				int green = (int) ((green1+green2)/2);
+				pixels[offset+i] = ((red & 0xff) << 16) + ((green & 0xff) << 8);
+			}
+		}
+	}
+
+	// white flag with a red "sun", a circle in the center
+	public static class JapaneseFlag extends GeneratorPattern {
+
+		// center + radius of "sun"
+		protected final int centeri, centerj;
+		protected final double radius;
+
+		public JapaneseFlag(int width, int height) {
+			super(width, height);
+			centeri = (int) (0.5 * (double) width);
+			centerj = (int) (0.5 * (double) height);
+			radius = 0.3 * (double) height;
+		}
+
+		@Override
+		public int getBitDepth() {
+			return 24;
+		}
+
+		// compare pixel position with center + radius of "sun", distance via pythagoras
+		protected boolean isInside(double a, double b) {
+			return Math.sqrt(a * a + b * b) <= radius;
+		}
+
+		// largest horizontal distance from the center that is still inside the sun in a
+		// row with vertical distance b, or -1 if the row misses the sun. the estimate is
+		// corrected with the exact per pixel test, so the edge is the same as pixel by pixel.
+		protected int halfSpan(double b) {
+			if (!isInside(0, b)) {
+				return -1;
+			}
+			int span = (int) Math.sqrt(Math.max(0, radius*radius - b*b));
+			while (span > 0 && !isInside(span, b)) {
+				span--;
+			}
+			while (isInside(span+1, b)) {
+				span++;
+			}
+			return span;
+		}
+
+		@Override
+		public void fillRow(int y, int x0, int n, int[] pixels, int offset) {
+			Arrays.fill(pixels, offset, offset+n, 0xffffffff);
+
+			// the part of this row that lies within the sun
+			int span = halfSpan(centerj - y);
+			int from = Math.max(x0, centeri - span);
+			int to = Math.min(x0 + n, centeri + span + 1);
+			if (from < to) {
+				Arrays.fill(pixels, offset + from - x0, offset + to - x0, 0xff0000);
+			}
+		}
+	}
+
+	// japanese flag whose sun fades out to white towards its edge, starting
+	// at the relative distance smoothingStart from the center
+	public static class JapaneseSmoothFlag extends JapaneseFlag {
+
+		private final double smoothingStart;
+
+		public JapaneseSmoothFlag(int width, int height, double smoothingStart) {
+			super(width, height);
+			this.smoothingStart = smoothingStart;
+		}
+
+		@Override
+		public boolean equals(Object other) {
+			return super.equals(other) && ((JapaneseSmoothFlag) other).smoothingStart == smoothingStart;
+		}
+
+		@Override
+		public int hashCode() {
+			long bits = Double.doubleToLongBits(smoothingStart);
+			return super.hashCode()*31 + (int) (bits ^ (bits >>> 32));
+		}
+
+		@Override
+		public String toString() {
+			return super.toString()+" smoothingStart="+smoothingStart;
+		}
+
+		// true if the pixel is not faded yet
+		private boolean isSolid(double a, double b) {
+			double relativeDistance = Math.sqrt(a * a + b * b) / radius;
+			return !(relativeDistance > smoothingStart);
+		}
+
+		// like halfSpan, but for the solid red part of the sun
+		private int solidHalfSpan(double b) {
+			if (!isSolid(0, b)) {
+				return -1;
+			}
+			double solidRadius = smoothingStart * radius;
+			int span = (int) Math.sqrt(Math.max(0, solidRadius*solidRadius - b*b));
+			while (span > 0 && !isSolid(span, b)) {
+				span--;
+			}
+			while (isSolid(span+1, b)) {
+				span++;
+			}
+			return span;
+		}
+
+		@Override
+		public void fillRow(int y, int x0, int n, int[] pixels, int offset) {
+			Arrays.fill(pixels, offset, offset+n, 0xffffffff);
+
+			double b = centerj - y;
+			int span = halfSpan(b);
+			int solidSpan = Math.min(span, solidHalfSpan(b));
+			int from = Math.max(x0, centeri - span);
+			int to = Math.min(x0 + n, centeri + span + 1);
+			for (int i = from; i < to; i++) {
+				if (Math.abs(centeri - i) <= solidSpan) {
+					pixels[offset + i - x0] = 0xff0000;
+					continue;
+				}
+				// fade-out to white when smoothingStart is crossed
+				double a = centeri - i;
+				double relativeDistance = Math.sqrt(a * a + b * b) / radius;
+				double value = (relativeDistance - smoothingStart) / (1 - smoothingStart) * 255;
+				int green = (int) value;
+				int blue = (int) value;
+				pixels[offset + i - x0] = 0xff0000 + ((green & 0xff) << 8) + (blue & 0xff);
+			}
+		}
+	}
+
+	// 8x8 fields, alternating black and white
+	public static class Chessboard extends GeneratorPattern {
+
+		// first column of each of the 8 fields of a row, plus the width
+		private final int[] fieldStart = new int[9];
+
+		public Chessboard(int width, int height) {
+			super(width, height);
+			for (int field = 0; field < 8; field++) {
+				fieldStart[field] = firstColumnOf(field);
+			}
+			fieldStart[8] = width;
+		}
+
+		@Override
+		public int getBitDepth() {
+			return 8;
+		}
+
+		// the "field number" of a column within its row
+		private int fieldOf(int x) {
+			return (int) (x/(double)width*8);
+		}
+
+		// first column with at least the given field number, by binary search
+		private int firstColumnOf(int field) {
+			int low = 0, high = width;
+			while (low < high) {
+				int middle = (low + high) >>> 1;
+				if (fieldOf(middle) < field) {
+					low = middle + 1;
+				}
+				else {
+					high = middle;
+				}
+			}
+			return low;
+		}
+
+		@Override
+		public void fillRow(int y, int x0, int n, byte[] pixels, int offset) {
+			int fieldY = (int) (y/(double)height*8);
+			for (int field = 0; field < 8; field++) {
+				int from = Math.max(x0, fieldStart[field]);
+				int to = Math.min(x0 + n, fieldStart[field+1]);
+				if (from >= to) {
+					continue;
+				}
+				// fill the field with white if row number is even and column number is odd or vice versa
+				byte value = (field + fieldY) % 2 == 1 ? (byte) 255 : 0;
+				Arrays.fill(pixels, offset + from - x0, offset + to - x0, value);
+			}
+		}
+	}
+}
@@ -0,0 +1,286 @@
+import java.awt.Rectangle;
+import java.nio.ShortBuffer;
+
+import ij.ImageStack;
+
+// histogram over all 65536 possible values of a 16 bit image. min, max and
+// percentiles are derived from the bins, without looking at the pixels again.
+public class Histogram16 {
+
+	// number of bins, one per possible pixel value
+	public static final int SIZE = 65536;
+
+	// number of pixels per (unsigned) value; long, so that whole volumes can be counted
+	private final long[] counts = new long[SIZE];
+
+	// total number of pixels counted
+	private long total = 0;
+
+	// build the histogram of a whole image in one pass over its pixels, one band of rows per task
+	public static Histogram16 of(short[] pixels, int width, int height) {
+		return of(pixels, width, height, null, null);
+	}
+
+	// same, and also note the smallest and largest value of every row in rowMin/rowMax (if not null)
+	public static Histogram16 of(final short[] pixels, final int width, int height, final char[] rowMin, final char[] rowMax) {
+		return PixelEngine.reduce(width, height, new PixelEngine.RowReduction<Histogram16>() {
+			@Override
+			public Histogram16 processRows(int firstRow, int endRow) {
+				Histogram16 histogram = new Histogram16();
+				if (rowMin == null) {
+					histogram.add(pixels, firstRow*width, endRow*width);
+					return histogram;
+				}
+				if (WindowingKernels.isVectorized() && width > 0) {
+					// count, then find min/max with the vector kernel while the row is still in the cache
+					WindowingKernel kernel = WindowingKernels.get();
+					for (int row = firstRow; row < endRow; row++) {
+						histogram.add(pixels, row*width, (row+1)*width);
+						int minMax = kernel.minMax(pixels, row*width, (row+1)*width);
+						rowMin[row] = (char) (minMax >>> 16);
+						rowMax[row] = (char) minMax;
+					}
+					return histogram;
+				}
+				final long[] counts = histogram.counts;
+				for (int row = firstRow; row < endRow; row++) {
+					int min = 65535;
+					int max = 0;
+					for (int index = row*width; index < (row+1)*width; index++) {
+						int value = pixels[index] & 0xffff;
+						counts[value]++;
+						min = Math.min(min, value);
+						max = Math.max(max, value);
+					}
+					rowMin[row] = (char) min;
+					rowMax[row] = (char) max;
+				}
+				histogram.total += (long)(endRow - firstRow)*width;
+				return histogram;
+			}
+
+			@Override
+			public Histogram16 combine(Histogram16 first, Histogram16 second) {
+				first.add(second);
+				return first;
+			}
+		});
+	}
+
+	// build the histogram of all slices of a 16 bit stack, one band of slices per task.
+	// slices of a memory mapped stack are counted straight from the mapped file.
+	public static Histogram16 of(final ImageStack stack) {
+		final int pixelsPerSlice = stack.getWidth()*stack.getHeight();
+		return PixelEngine.reduce(pixelsPerSlice, stack.getSize(), new PixelEngine.RowReduction<Histogram16>() {
+			@Override
+			public Histogram16 processRows(int firstSlice, int endSlice) {
+				Histogram16 histogram = new Histogram16();
+				for (int slice = firstSlice; slice < endSlice; slice++) {
+					if (stack instanceof MappedRawStack) {
+						// nothing to count once the stack has been closed
+						ShortBuffer buffer = ((MappedRawStack) stack).acquire(slice+1);
+						if (buffer != null) {
+							try {
+								histogram.add(buffer, 0, pixelsPerSlice);
+							} finally {
+								((MappedRawStack) stack).release();
+							}
+						}
+					}
+					else {
+						histogram.add((short[]) stack.getPixels(slice+1), 0, pixelsPerSlice);
+					}
+				}
+				return histogram;
+			}
+
+			@Override
+			public Histogram16 combine(Histogram16 first, Histogram16 second) {
+				first.add(second);
+				return first;
+			}
+		});
+	}
+
+	// build the histogram of a region of an image only: the pixels within bounds for which
+	// mask (bounds.width x bounds.height, as from Roi.getMask()) is not 0, or all of them if
+	// mask is null. parts of bounds outside of the image are ignored.
+	public static Histogram16 ofRegion(final short[] pixels, final int width, int height, final Rectangle bounds, final byte[] mask) {
+		final Rectangle region = bounds.intersection(new Rectangle(width, height));
+		if (region.isEmpty()) {
+			return new Histogram16();
+		}
+		return PixelEngine.reduce(region.width, region.height, new PixelEngine.RowReduction<Histogram16>() {
+			@Override
+			public Histogram16 processRows(int firstRow, int endRow) {
+				Histogram16 histogram = new Histogram16();
+				for (int y = region.y + firstRow; y < region.y + endRow; y++) {
+					histogram.addRow(pixels, null, y*width, y, region, bounds, mask);
+				}
+				return histogram;
+			}
+
+			@Override
+			public Histogram16 combine(Histogram16 first, Histogram16 second) {
+				first.add(second);
+				return first;
+			}
+		});
+	}
+
+	// the same region in all slices of a 16 bit stack
+	public static Histogram16 ofRegion(final ImageStack stack, final Rectangle bounds, final byte[] mask) {
+		final int width = stack.getWidth();
+		final Rectangle region = bounds.intersection(new Rectangle(width, stack.getHeight()));
+		if (region.isEmpty()) {
+			return new Histogram16();
+		}
+		return PixelEngine.reduce(region.width*region.height, stack.getSize(), new PixelEngine.RowReduction<Histogram16>() {
+			@Override
+			public Histogram16 processRows(int firstSlice, int endSlice) {
+				Histogram16 histogram = new Histogram16();
+				for (int slice = firstSlice; slice < endSlice; slice++) {
+					short[] pixels = null;
+					ShortBuffer buffer = null;
+					if (stack instanceof MappedRawStack) {
+						buffer = ((MappedRawStack) stack).acquire(slice+1);
+						if (buffer == null) {
+							// the stack has been closed
+							continue;
+						}
+					}
+					else {
+						pixels = (short[]) stack.getPixels(slice+1);
+					}
+					try {
+						for (int y = region.y; y < region.y + region.height; y++) {
+							histogram.addRow(pixels, buffer, y*width, y, region, bounds, mask);
+						}
+					} finally {
+						if (buffer != null) {
+							((MappedRawStack) stack).release();
+						}
+					}
+				}
+				return histogram;
+			}
+
+			@Override
+			public Histogram16 combine(Histogram16 first, Histogram16 second) {
+				first.add(second);
+				return first;
+			}
+		});
+	}
+
+	// count the pixels of row y (starting at rowStart in pixels or buffer) that are within
+	// region and not masked out. the mask covers bounds, region is the part of it in the image.
+	private void addRow(short[] pixels, ShortBuffer buffer, int rowStart, int y, Rectangle region, Rectangle bounds, byte[] mask) {
+		int from = rowStart + region.x;
+		int to = from + region.width;
+		if (mask == null) {
+			if (pixels != null) {
+				add(pixels, from, to);
+			}
+			else {
+				add(buffer, from, to);
+			}
+			return;
+		}
+		final long[] counts = this.counts;
+		int maskIndex = (y - bounds.y)*bounds.width + (region.x - bounds.x);
+		for (int index = from; index < to; index++, maskIndex++) {
+			if (mask[maskIndex] != 0) {
+				counts[(pixels != null ? pixels[index] : buffer.get(index)) & 0xffff]++;
+				total++;
+			}
+		}
+	}
+
+	// count the pixels with index from..to-1
+	public void add(short[] pixels, int from, int to) {
+		final long[] counts = this.counts;
+		for (int index = from; index < to; index++) {
+			counts[pixels[index] & 0xffff]++;
+		}
+		total += to - from;
+	}
+
+	// count the pixels with index from..to-1 of a (e.g. memory mapped) buffer
+	public void add(ShortBuffer pixels, int from, int to) {
+		final long[] counts = this.counts;
+		for (int index = from; index < to; index++) {
+			counts[pixels.get(index) & 0xffff]++;
+		}
+		total += to - from;
+	}
+
+	// count the given number of pixels with one value, e.g. from a stored histogram
+	public void add(int value, long count) {
+		counts[value] += count;
+		total += count;
+	}
+
+	// take the pixels with index from..to-1 out of the histogram again, e.g. the old values of edited pixels
+	public void remove(short[] pixels, int from, int to) {
+		final long[] counts = this.counts;
+		for (int index = from; index < to; index++) {
+			counts[pixels[index] & 0xffff]--;
+		}
+		total -= to - from;
+	}
+
+	// add the counts of another histogram to this one
+	public void add(Histogram16 other) {
+		for (int value = 0; value < SIZE; value++) {
+			counts[value] += other.counts[value];
+		}
+		total += other.total;
+	}
+
+	// number of pixels with the given value
+	public long getCount(int value) {
+		return counts[value];
+	}
+
+	public long getTotal() {
+		return total;
+	}
+
+	// smallest value that occurs, or 0 if the histogram is empty
+	public int getMin() {
+		for (int value = 0; value < SIZE; value++) {
+			if (counts[value] != 0) {
+				return value;
+			}
+		}
+		return 0;
+	}
+
+	// largest value that occurs, or 0 if the histogram is empty
+	public int getMax() {
+		for (int value = SIZE-1; value >= 0; value--) {
+			if (counts[value] != 0) {
+				return value;
+			}
+		}
+		return 0;
+	}
+
+	// smallest value for which at least the given percentage (0..100) of all
+	// pixels are less or equal to it
+	public int getPercentile(double percent) {
+		if (total == 0) {
+			return 0;
+		}
+		double needed = Math.max(1, Math.min(total, Math.ceil(total * percent / 100)));
+		long sum = 0;
+		for (int value = 0; value < SIZE; value++) {
+			sum += counts[value];
+			if (sum >= needed) {
+				return value;
+			}
+		}
+		return getMax();
+	}
+}
@@ -0,0 +1,60 @@
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+// images that are windowed together, e.g. series that are compared side by side.
+// a change of the window, the display options or the color map of one of them is
+// applied to all. each image has its own render scheduler, but all schedulers run
+// on the shared render workers: the images are rendered at the same time, and
+// each one is shown as soon as it is ready.
+public class LinkedWindowing {
+
+	private final List<Display16BitAsRGB_> members = new CopyOnWriteArrayList<Display16BitAsRGB_>();
+
+	// window the image together with the others, it takes over their settings
+	public void add(Display16BitAsRGB_ member) {
+		if (!members.isEmpty()) {
+			member.setSettings(members.get(0).getSettings());
+		}
+		members.add(member);
+		member.setLink(this);
+	}
+
+	// let the image be windowed on its own again
+	public void remove(Display16BitAsRGB_ member) {
+		if (members.remove(member)) {
+			member.setLink(null);
+		}
+	}
+
+	public List<Display16BitAsRGB_> getMembers() {
+		return members;
+	}
+
+	// smallest and largest pixel value of all images
+	public int getMinValue() {
+		int min = Integer.MAX_VALUE;
+		for (Display16BitAsRGB_ member : members) {
+			min = Math.min(min, member.min_value);
+		}
+		return members.isEmpty() ? 0 : min;
+	}
+
+	public int getMaxValue() {
+		int max = Integer.MIN_VALUE;
+		for (Display16BitAsRGB_ member : members) {
+			max = Math.max(max, member.max_value);
+		}
+		return members.isEmpty() ? 0 : max;
+	}
+
+	// apply the settings of the given image to all others and render all of them
+	public void update(Display16BitAsRGB_ source, boolean preview) {
+		WindowSettings settings = source.getSettings();
+		for (Display16BitAsRGB_ member : members) {
+			if (member != source) {
+				member.setSettings(settings);
+			}
+			member.scheduleRender(preview);
+		}
+	}
+}
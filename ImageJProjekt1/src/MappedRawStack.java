@@ -0,0 +1,179 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import ij.VirtualStack;
+import ij.process.ImageProcessor;
+import ij.process.ShortProcessor;
+
+// a 16 bit stack backed by a raw file. the file is memory mapped in chunks of whole
+// slices, so the pixel data stays in the page cache of the operating system instead of
+// the Java heap, and volumes larger than the heap can be processed.
+public class MappedRawStack extends VirtualStack {
+
+	// largest mapping, a MappedByteBuffer can't be larger
+	private static final long MAX_CHUNK_BYTES = Integer.MAX_VALUE;
+
+	private final File file;
+	private final RandomAccessFile raf;
+	private final FileChannel channel;
+
+	// byte offset of the first slice, bytes per slice, byte order of the pixels
+	private final long offset;
+	private final long sliceBytes;
+	private final ByteOrder order;
+
+	// the mapped chunks of slicesPerChunk slices each, mapped on first use and kept until
+	// the stack is closed, so a slice is mapped only once however often it is read
+	private final int slicesPerChunk;
+	private final MappedByteBuffer[] chunks;
+
+	// held for reading while a slice is used, and for writing to unmap the chunks and
+	// close the file, which waits until no render or histogram pass reads a slice any more
+	private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+	private boolean closed = false;
+
+	// open a raw file with the given slice size. the number of slices is
+	// derived from the file size if it is 0 or more than the file contains.
+	public MappedRawStack(File file, int width, int height, int slices, long offset, boolean littleEndian) throws IOException {
+		super(width, height, countSlices(file, width, height, slices, offset), "16-bit");
+		this.file = file;
+		this.offset = offset;
+		this.sliceBytes = 2L*width*height;
+		this.order = littleEndian ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN;
+		if (sliceBytes > MAX_CHUNK_BYTES) {
+			throw new IOException("slices larger than 2 GB can't be mapped: "+file);
+		}
+		slicesPerChunk = (int) Math.min(getSize(), MAX_CHUNK_BYTES / sliceBytes);
+		chunks = new MappedByteBuffer[(getSize() + slicesPerChunk - 1) / slicesPerChunk];
+		raf = new RandomAccessFile(file, "r");
+		channel = raf.getChannel();
+	}
+
+	private static int countSlices(File file, int width, int height, int slices, long offset) throws IOException {
+		if (!file.isFile()) {
+			throw new IOException("file not found: "+file);
+		}
+		long available = (file.length() - offset) / (2L*width*height);
+		if (available < 1) {
+			throw new IOException("file too small for a "+width+"x"+height+" 16 bit image: "+file);
+		}
+		if (slices <= 0 || slices > available) {
+			return (int) Math.min(Integer.MAX_VALUE, available);
+		}
+		return slices;
+	}
+
+	// the pixels of slice n (1..size) as a read-only view of the mapped file, or null if the
+	// stack has been closed. the slice stays mapped until release() is called, which must
+	// follow on the same thread, typically in a finally block.
+	public ShortBuffer acquire(int n) {
+		lock.readLock().lock();
+		if (closed) {
+			lock.readLock().unlock();
+			return null;
+		}
+		try {
+			ByteBuffer slice = getChunk((n-1) / slicesPerChunk).duplicate();
+			int start = (int) (((n-1) % slicesPerChunk)*sliceBytes);
+			slice.limit(start + (int) sliceBytes);
+			slice.position(start);
+			return slice.slice().order(order).asShortBuffer();
+		} catch (IOException e) {
+			lock.readLock().unlock();
+			throw new IllegalStateException("cannot map slice "+n+" of "+file, e);
+		}
+	}
+
+	// done with the slice of the last acquire()
+	public void release() {
+		lock.readLock().unlock();
+	}
+
+	private synchronized MappedByteBuffer getChunk(int chunk) throws IOException {
+		if (chunks[chunk] == null) {
+			long first = (long) chunk*slicesPerChunk;
+			long slices = Math.min(slicesPerChunk, getSize() - first);
+			chunks[chunk] = channel.map(FileChannel.MapMode.READ_ONLY, offset + first*sliceBytes, slices*sliceBytes);
+		}
+		return chunks[chunk];
+	}
+
+	// a heap copy of slice n, for ImageJ code that needs a regular processor.
+	// the slice is black once the stack has been closed.
+	@Override
+	public ImageProcessor getProcessor(int n) {
+		short[] pixels = new short[getWidth()*getHeight()];
+		ShortBuffer buffer = acquire(n);
+		if (buffer != null) {
+			try {
+				buffer.get(pixels);
+			} finally {
+				release();
+			}
+		}
+		return new ShortProcessor(getWidth(), getHeight(), pixels, null);
+	}
+
+	@Override
+	public String getSliceLabel(int n) {
+		return file.getName()+":"+n;
+	}
+
+	// release the file once the slices in use have been released. the chunks are unmapped
+	// right away where the JVM allows it, so that e.g. Windows doesn't keep the file locked.
+	public void close() throws IOException {
+		lock.writeLock().lock();
+		try {
+			if (closed) {
+				return;
+			}
+			closed = true;
+			synchronized (this) {
+				for (int chunk = 0; chunk < chunks.length; chunk++) {
+					if (chunks[chunk] != null) {
+						unmap(chunks[chunk]);
+						chunks[chunk] = null;
+					}
+				}
+			}
+			raf.close();
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	// free a mapping without waiting for the garbage collector: Unsafe.invokeCleaner() from
+	// Java 9 on, the cleaner of the buffer before. if neither is accessible, the mapping goes
+	// with the garbage collector as before.
+	private static void unmap(MappedByteBuffer buffer) {
+		try {
+			Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+			Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+			Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+			theUnsafe.setAccessible(true);
+			invokeCleaner.invoke(theUnsafe.get(null), buffer);
+			return;
+		} catch (Exception e) {
+			// not Java 9 or later
+		}
+		try {
+			Method cleaner = buffer.getClass().getMethod("cleaner");
+			cleaner.setAccessible(true);
+			Object clean = cleaner.invoke(buffer);
+			if (clean != null) {
+				clean.getClass().getMethod("clean").invoke(clean);
+			}
+		} catch (Exception e) {
+			// left to the garbage collector
+		}
+	}
+}
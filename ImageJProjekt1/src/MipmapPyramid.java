@@ -0,0 +1,152 @@
+// downsampled copies of a 16 bit image, each half the width and height of the one
+// before, so that a coarse preview of the image can be windowed from a fraction of
+// its pixels. level 0 is the image itself; it is not copied. the pyramid also
+// knows the smallest and largest value of every row of every level, to find the
+// rows affected by a change of some colors of the table (see WindowingTable).
+public class MipmapPyramid {
+
+	// how four pixels are combined into one
+	public enum Mode {
+		// their mean, a smooth image
+		MEAN,
+		// alternately their maximum and minimum (like a checkerboard), so that small bright
+		// or dark details, e.g. calcifications, don't disappear when zoomed out
+		MIN_MAX
+	}
+
+	// levels smaller than this in both directions are not worth it
+	private static final int MIN_SIZE = 64;
+
+	private final Mode mode;
+	private final short[] source;
+
+	// index 0 is the image itself
+	private final short[][] levels;
+	private final int[] widths, heights;
+	private final char[][] rowMin, rowMax;
+
+	// build all levels of the given image, on all cores
+	public MipmapPyramid(short[] pixels, int width, int height, Mode mode) {
+		this.mode = mode;
+		this.source = pixels;
+		int count = 1;
+		while (((width-1) >> count) + 1 >= MIN_SIZE || ((height-1) >> count) + 1 >= MIN_SIZE) {
+			count++;
+		}
+		levels = new short[count][];
+		widths = new int[count];
+		heights = new int[count];
+		rowMin = new char[count][];
+		rowMax = new char[count][];
+		levels[0] = pixels;
+		widths[0] = width;
+		heights[0] = height;
+		for (int level = 1; level < count; level++) {
+			widths[level] = (widths[level-1] + 1) / 2;
+			heights[level] = (heights[level-1] + 1) / 2;
+			levels[level] = new short[widths[level]*heights[level]];
+			rowMin[level] = new char[heights[level]];
+			rowMax[level] = new char[heights[level]];
+		}
+		for (int level = 1; level < count; level++) {
+			final int current = level;
+			PixelEngine.forEachBand(widths[level], heights[level], new PixelEngine.RowTask() {
+				@Override
+				public void processRows(int firstRow, int endRow) {
+					reduceRows(current, firstRow, endRow);
+				}
+			});
+		}
+	}
+
+	// the image the pyramid has been built from
+	public short[] getSource() {
+		return source;
+	}
+
+	public Mode getMode() {
+		return mode;
+	}
+
+	// number of levels, including the image itself
+	public int getLevels() {
+		return levels.length;
+	}
+
+	public short[] getPixels(int level) {
+		return levels[level];
+	}
+
+	public int getWidth(int level) {
+		return widths[level];
+	}
+
+	public int getHeight(int level) {
+		return heights[level];
+	}
+
+	// smallest and largest value of every row of a level above 0
+	public char[] getRowMin(int level) {
+		return rowMin[level];
+	}
+
+	public char[] getRowMax(int level) {
+		return rowMax[level];
+	}
+
+	// the coarsest level that still has at least one pixel per screen pixel at the given
+	// magnification (0 for a magnification of 1 and more)
+	public int getLevel(double magnification) {
+		int level = 0;
+		while (level+1 < levels.length && magnification * (1 << (level+1)) <= 1 + 1e-9) {
+			level++;
+		}
+		return level;
+	}
+
+	// the rows firstRow..endRow-1 of the image have been changed: compute the rows of all
+	// levels above that depend on them again
+	public void update(int firstRow, int endRow) {
+		for (int level = 1; level < levels.length && firstRow < endRow; level++) {
+			firstRow = firstRow / 2;
+			endRow = (endRow + 1) / 2;
+			reduceRows(level, firstRow, endRow);
+		}
+	}
+
+	// compute the rows firstRow..endRow-1 of a level from the level below
+	private void reduceRows(int level, int firstRow, int endRow) {
+		final short[] below = levels[level-1];
+		final int belowWidth = widths[level-1];
+		final int belowHeight = heights[level-1];
+		final short[] pixels = levels[level];
+		final int width = widths[level];
+		final boolean mean = mode == Mode.MEAN;
+		for (int row = firstRow; row < endRow; row++) {
+			int top = 2*row*belowWidth;
+			int bottom = 2*row+1 < belowHeight ? top + belowWidth : top;
+			int min = 65535, max = 0;
+			for (int x = 0; x < width; x++) {
+				int left = 2*x;
+				int right = left+1 < belowWidth ? left+1 : left;
+				int a = below[top+left] & 0xffff, b = below[top+right] & 0xffff;
+				int c = below[bottom+left] & 0xffff, d = below[bottom+right] & 0xffff;
+				int value;
+				if (mean) {
+					value = (a + b + c + d + 2) >> 2;
+				}
+				else if (((x + row) & 1) == 0) {
+					value = Math.max(Math.max(a, b), Math.max(c, d));
+				}
+				else {
+					value = Math.min(Math.min(a, b), Math.min(c, d));
+				}
+				pixels[row*width+x] = (short) value;
+				min = Math.min(min, value);
+				max = Math.max(max, value);
+			}
+			rowMin[level][row] = (char) min;
+			rowMax[level][row] = (char) max;
+		}
+	}
+}
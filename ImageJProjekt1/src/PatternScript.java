@@ -0,0 +1,746 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+// a pattern described by a formula instead of a class of its own, e.g.
+//
+//   blend(gradient(0), checker(8, 8), 0.25)
+//   rgb(circle(0.5, 0.5, 0.3), gradient(90), noise(1) * 0.5)
+//
+// a formula yields a gray value from 0 (black) to 1 (white) per pixel, or three of
+// them for red, green and blue if the whole formula is rgb(...). x and y run from
+// 0 at the left/top to 1 at the right/bottom edge, lengths (radii) are fractions
+// of the smaller side of the image. there are numbers, + - * / and parentheses,
+// everything after # is a comment, and these functions:
+//
+//   x, y                      the position
+//   gradient(angle)           0 to 1 across the image, in the direction of angle (degrees, 0 = to the right, 90 = down)
+//   radial(cx, cy, r)         1 at the center, falling off to 0 at distance r
+//   circle(cx, cy, r)         1 within the circle, else 0
+//   rect(x0, y0, x1, y1)      1 within the rectangle, else 0
+//   checker(nx, ny)           nx x ny fields, alternately 0 and 1
+//   noise(seed)               white noise from 0 to 1, the same for the same seed
+//   blend(a, b, t)            a where t is 0, b where t is 1, in between mixed
+//   min(a, b), max(a, b)
+//
+// the arguments of gradient .. noise must be numbers (or formulas of numbers). the
+// formula is parsed once and compiled into a tree of row kernels: each node computes
+// a whole row (or the requested part of it) in a tight loop of its own, parts that
+// are the same for every pixel are computed once, and the formula is checked for
+// rows that are all equal. the rows are computed in parallel by the GeneratorEngine.
+public class PatternScript extends GeneratorPattern {
+
+	private final String source;
+
+	// the gray value, or the red, green and blue values
+	private final Node[] channels;
+
+	// number of row buffers the nodes write to, one per node
+	private final int registers;
+
+	private final boolean rowInvariant;
+
+	// pixels of a row that are computed at a time, so the row buffers don't grow with the width
+	private static final int CHUNK = 4096;
+
+	// sets of row buffers of CHUNK pixels, one per node. a thread computing a row takes a set
+	// and puts it back afterwards, rows may be computed in parallel. see release().
+	private final ConcurrentLinkedQueue<double[][]> buffers = new ConcurrentLinkedQueue<double[][]>();
+
+	// parse and compile a formula, throws IllegalArgumentException if it's malformed
+	public PatternScript(String source, int width, int height) {
+		super(width, height);
+		this.source = source.trim();
+		channels = new Parser(source, this).parse();
+		int count = 0;
+		boolean dependsOnY = false;
+		for (Node channel : channels) {
+			count = channel.allocate(count);
+			dependsOnY |= channel.dependsOnY();
+		}
+		registers = count;
+		rowInvariant = !dependsOnY;
+	}
+
+	public String getSource() {
+		return source;
+	}
+
+	@Override
+	public int getBitDepth() {
+		return channels.length == 1 ? 8 : 24;
+	}
+
+	@Override
+	public boolean isRowInvariant() {
+		return rowInvariant;
+	}
+
+	// a set of row buffers that no other thread uses
+	private double[][] takeBuffers() {
+		double[][] rows = buffers.poll();
+		return rows != null ? rows : new double[Math.max(1, registers)][Math.max(1, Math.min(CHUNK, width))];
+	}
+
+	// the generated rows are done with: drop the row buffers, they are allocated again if needed
+	@Override
+	public void release() {
+		buffers.clear();
+	}
+
+	@Override
+	public void fillRow(int y, int x0, int n, byte[] pixels, int offset) {
+		if (channels.length != 1) {
+			super.fillRow(y, x0, n, pixels, offset);
+			return;
+		}
+		double[][] rows = takeBuffers();
+		for (int done = 0; done < n; done += rows[0].length) {
+			int count = Math.min(rows[0].length, n - done);
+			double[] gray = channels[0].evaluate(y, x0+done, count, rows);
+			int start = offset+done;
+			for (int i = 0; i < count; i++) {
+				pixels[start+i] = (byte) toByte(gray[i]);
+			}
+		}
+		buffers.offer(rows);
+	}
+
+	@Override
+	public void fillRow(int y, int x0, int n, int[] pixels, int offset) {
+		if (channels.length != 3) {
+			super.fillRow(y, x0, n, pixels, offset);
+			return;
+		}
+		double[][] rows = takeBuffers();
+		for (int done = 0; done < n; done += rows[0].length) {
+			int count = Math.min(rows[0].length, n - done);
+			double[] red = channels[0].evaluate(y, x0+done, count, rows);
+			double[] green = channels[1].evaluate(y, x0+done, count, rows);
+			double[] blue = channels[2].evaluate(y, x0+done, count, rows);
+			int start = offset+done;
+			for (int i = 0; i < count; i++) {
+				pixels[start+i] = (toByte(red[i]) << 16) | (toByte(green[i]) << 8) | toByte(blue[i]);
+			}
+		}
+		buffers.offer(rows);
+	}
+
+	// 0..1 to 0..255, clamped
+	private static int toByte(double value) {
+		return value <= 0 ? 0 : value >= 1 ? 255 : (int) (value*255 + 0.5);
+	}
+
+	// the position of a column or row from 0 to 1
+	double u(int x) {
+		return width > 1 ? x / (double) (width-1) : 0;
+	}
+
+	double v(int y) {
+		return height > 1 ? y / (double) (height-1) : 0;
+	}
+
+	@Override
+	public boolean equals(Object other) {
+		return super.equals(other) && ((PatternScript) other).source.equals(source);
+	}
+
+	@Override
+	public int hashCode() {
+		return super.hashCode()*31 + source.hashCode();
+	}
+
+	@Override
+	public String toString() {
+		return super.toString()+" "+source;
+	}
+
+	// --- the nodes of a compiled formula ---
+
+	// computes the values of the pixels x0..x0+n-1 of a row into its row buffer
+	private abstract static class Node {
+
+		final Node[] children;
+
+		// index of the row buffer the node writes to
+		int register;
+
+		Node(Node... children) {
+			this.children = children;
+		}
+
+		// number the nodes, children first, and return the next free register
+		int allocate(int next) {
+			for (Node child : children) {
+				next = child.allocate(next);
+			}
+			register = next;
+			return next+1;
+		}
+
+		// true if the value depends on the row
+		boolean dependsOnY() {
+			for (Node child : children) {
+				if (child.dependsOnY()) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		// true for numbers, including parts of the formula that have been folded into one
+		boolean isConstant() {
+			return false;
+		}
+
+		// compute the children, then this node; returns the row buffer with the values
+		double[] evaluate(int y, int x0, int n, double[][] rows) {
+			for (Node child : children) {
+				child.evaluate(y, x0, n, rows);
+			}
+			double[] out = rows[register];
+			compute(y, x0, n, rows, out);
+			return out;
+		}
+
+		// the values of a child, once it has been evaluated
+		double[] in(double[][] rows, int child) {
+			return rows[children[child].register];
+		}
+
+		abstract void compute(int y, int x0, int n, double[][] rows, double[] out);
+	}
+
+	private static class Constant extends Node {
+		final double value;
+
+		Constant(double value) {
+			this.value = value;
+		}
+
+		@Override
+		boolean isConstant() {
+			return true;
+		}
+
+		@Override
+		void compute(int y, int x0, int n, double[][] rows, double[] out) {
+			Arrays.fill(out, 0, n, value);
+		}
+	}
+
+	private static class X extends Node {
+		final PatternScript pattern;
+
+		X(PatternScript pattern) {
+			this.pattern = pattern;
+		}
+
+		@Override
+		void compute(int y, int x0, int n, double[][] rows, double[] out) {
+			// from the column itself, so a row computed in parts has the same values
+			double step = pattern.u(1);
+			for (int i = 0; i < n; i++) {
+				out[i] = (x0+i)*step;
+			}
+		}
+	}
+
+	private static class Y extends Node {
+		final PatternScript pattern;
+
+		Y(PatternScript pattern) {
+			this.pattern = pattern;
+		}
+
+		@Override
+		boolean dependsOnY() {
+			return true;
+		}
+
+		@Override
+		void compute(int y, int x0, int n, double[][] rows, double[] out) {
+			Arrays.fill(out, 0, n, pattern.v(y));
+		}
+	}
+
+	private static class Arithmetic extends Node {
+		final char operator;
+
+		Arithmetic(char operator, Node a, Node b) {
+			super(a, b);
+			this.operator = operator;
+		}
+
+		@Override
+		void compute(int y, int x0, int n, double[][] rows, double[] out) {
+			double[] a = in(rows, 0), b = in(rows, 1);
+			switch (operator) {
+			case '+':
+				for (int i = 0; i < n; i++) {
+					out[i] = a[i] + b[i];
+				}
+				break;
+			case '-':
+				for (int i = 0; i < n; i++) {
+					out[i] = a[i] - b[i];
+				}
+				break;
+			case '*':
+				for (int i = 0; i < n; i++) {
+					out[i] = a[i] * b[i];
+				}
+				break;
+			default:
+				for (int i = 0; i < n; i++) {
+					out[i] = a[i] / b[i];
+				}
+			}
+		}
+	}
+
+	private static class Negation extends Node {
+		Negation(Node a) {
+			super(a);
+		}
+
+		@Override
+		void compute(int y, int x0, int n, double[][] rows, double[] out) {
+			double[] a = in(rows, 0);
+			for (int i = 0; i < n; i++) {
+				out[i] = -a[i];
+			}
+		}
+	}
+
+	private static class Blend extends Node {
+		Blend(Node a, Node b, Node t) {
+			super(a, b, t);
+		}
+
+		@Override
+		void compute(int y, int x0, int n, double[][] rows, double[] out) {
+			double[] a = in(rows, 0), b = in(rows, 1), t = in(rows, 2);
+			for (int i = 0; i < n; i++) {
+				out[i] = a[i] + (b[i] - a[i])*t[i];
+			}
+		}
+	}
+
+	private static class MinMax extends Node {
+		final boolean max;
+
+		MinMax(boolean max, Node a, Node b) {
+			super(a, b);
+			this.max = max;
+		}
+
+		@Override
+		void compute(int y, int x0, int n, double[][] rows, double[] out) {
+			double[] a = in(rows, 0), b = in(rows, 1);
+			for (int i = 0; i < n; i++) {
+				out[i] = max ? Math.max(a[i], b[i]) : Math.min(a[i], b[i]);
+			}
+		}
+	}
+
+	// the value changes by a fixed step from pixel to pixel
+	private static class Gradient extends Node {
+		final PatternScript pattern;
+		final double dx, dy, offset;
+
+		Gradient(PatternScript pattern, double degrees) {
+			this.pattern = pattern;
+			// exactly 0 for multiples of 90 degrees, so e.g. horizontal gradients are found to be row invariant
+			double cos = Math.rint(Math.cos(Math.toRadians(degrees))*1e12)/1e12;
+			double sin = Math.rint(Math.sin(Math.toRadians(degrees))*1e12)/1e12;
+			// scaled so that the corners of the image along the direction are 0 and 1
+			double low = Math.min(0, cos) + Math.min(0, sin);
+			double high = Math.max(0, cos) + Math.max(0, sin);
+			double scale = high > low ? 1 / (high - low) : 0;
+			dx = cos*scale;
+			dy = sin*scale;
+			offset = -low*scale;
+		}
+
+		@Override
+		boolean dependsOnY() {
+			return dy != 0;
+		}
+
+		@Override
+		void compute(int y, int x0, int n, double[][] rows, double[] out) {
+			double step = dx*pattern.u(1);
+			double start = offset + dy*pattern.v(y);
+			for (int i = 0; i < n; i++) {
+				out[i] = start + (x0+i)*step;
+			}
+		}
+	}
+
+	// circles (or their falloff): only the part of the row within the radius is computed,
+	// a solid circle is a single fill per row
+	private static class Circle extends Node {
+		final PatternScript pattern;
+		final double cx, cy, radius;
+		final boolean soft;
+
+		Circle(PatternScript pattern, double cx, double cy, double r, boolean soft) {
+			this.pattern = pattern;
+			this.cx = cx*(pattern.width-1);
+			this.cy = cy*(pattern.height-1);
+			this.radius = r*Math.min(pattern.width, pattern.height);
+			this.soft = soft;
+		}
+
+		@Override
+		boolean dependsOnY() {
+			return true;
+		}
+
+		@Override
+		void compute(int y, int x0, int n, double[][] rows, double[] out) {
+			Arrays.fill(out, 0, n, 0);
+			double b = y - cy;
+			double span = radius*radius - b*b;
+			if (span < 0) {
+				return;
+			}
+			span = Math.sqrt(span);
+			int from = Math.max(x0, (int) Math.ceil(cx - span));
+			int to = Math.min(x0+n, (int) Math.floor(cx + span) + 1);
+			if (from >= to) {
+				return;
+			}
+			if (!soft) {
+				Arrays.fill(out, from-x0, to-x0, 1);
+				return;
+			}
+			double inverse = 1 / radius;
+			double bb = b*b;
+			for (int x = from; x < to; x++) {
+				double a = x - cx;
+				out[x-x0] = Math.max(0, 1 - Math.sqrt(a*a + bb)*inverse);
+			}
+		}
+	}
+
+	private static class Rect extends Node {
+		final int left, top, right, bottom;
+
+		Rect(PatternScript pattern, double x0, double y0, double x1, double y1) {
+			left = (int) Math.round(Math.min(x0, x1)*(pattern.width-1));
+			right = (int) Math.round(Math.max(x0, x1)*(pattern.width-1));
+			top = (int) Math.round(Math.min(y0, y1)*(pattern.height-1));
+			bottom = (int) Math.round(Math.max(y0, y1)*(pattern.height-1));
+		}
+
+		@Override
+		boolean dependsOnY() {
+			return true;
+		}
+
+		@Override
+		void compute(int y, int x0, int n, double[][] rows, double[] out) {
+			Arrays.fill(out, 0, n, 0);
+			if (y >= top && y <= bottom) {
+				int from = Math.max(x0, left);
+				int to = Math.min(x0+n, right+1);
+				if (from < to) {
+					Arrays.fill(out, from-x0, to-x0, 1);
+				}
+			}
+		}
+	}
+
+	// fields like those of GeneratorPatterns.Chessboard, filled field by field
+	private static class Checker extends Node {
+		final PatternScript pattern;
+		final int columns, lines;
+
+		Checker(PatternScript pattern, double columns, double lines) {
+			this.pattern = pattern;
+			this.columns = Math.max(1, (int) columns);
+			this.lines = Math.max(1, (int) lines);
+		}
+
+		@Override
+		boolean dependsOnY() {
+			return lines > 1;
+		}
+
+		@Override
+		void compute(int y, int x0, int n, double[][] rows, double[] out) {
+			int fieldY = (int) ((long) y*lines/pattern.height);
+			int x = x0;
+			while (x < x0+n) {
+				int field = (int) ((long) x*columns/pattern.width);
+				// first column of the next field
+				int end = (int) Math.min(x0+n, ((long) (field+1)*pattern.width + columns-1)/columns);
+				Arrays.fill(out, x-x0, end-x0, (field + fieldY) % 2);
+				x = Math.max(end, x+1);
+			}
+		}
+	}
+
+	// a hash of the position and the seed, so any part of the image can be computed on its own
+	private static class Noise extends Node {
+		final long seed;
+
+		Noise(double seed) {
+			this.seed = Double.doubleToLongBits(seed) * 0x9e3779b97f4a7c15L;
+		}
+
+		@Override
+		boolean dependsOnY() {
+			return true;
+		}
+
+		@Override
+		void compute(int y, int x0, int n, double[][] rows, double[] out) {
+			long row = seed ^ (y * 0xc2b2ae3d27d4eb4fL);
+			for (int i = 0; i < n; i++) {
+				long h = row + (x0+i) * 0x165667b19e3779f9L;
+				h = (h ^ (h >>> 33)) * 0xff51afd7ed558ccdL;
+				h = (h ^ (h >>> 33)) * 0xc4ceb9fe1a85ec53L;
+				h ^= h >>> 33;
+				out[i] = (h >>> 11) * 0x1.0p-53;
+			}
+		}
+	}
+
+	// --- parser ---
+
+	// recursive descent over the formula; constant parts are folded into numbers
+	private static class Parser {
+		private final String text;
+		private final PatternScript pattern;
+		private int position = 0;
+
+		Parser(String text, PatternScript pattern) {
+			this.text = text;
+			this.pattern = pattern;
+		}
+
+		// formula := 'rgb' '(' sum ',' sum ',' sum ')' | sum
+		// the channels of the formula: the gray value, or the red, green and blue values
+		Node[] parse() {
+			skipSpace();
+			int start = position;
+			Node[] channels;
+			if (name().equals("rgb")) {
+				channels = arguments("rgb", start).toArray(new Node[3]);
+			}
+			else {
+				channels = new Node[] { expression() };
+			}
+			skipSpace();
+			if (position < text.length()) {
+				throw error(channels.length == 3 ? "rgb(...) must be the whole formula" : "unexpected '"+text.charAt(position)+"'");
+			}
+			return channels;
+		}
+
+		// sum := product (('+' | '-') product)*
+		private Node expression() {
+			Node node = product();
+			while (true) {
+				if (accept('+')) {
+					node = fold(new Arithmetic('+', node, product()));
+				}
+				else if (accept('-')) {
+					node = fold(new Arithmetic('-', node, product()));
+				}
+				else {
+					return node;
+				}
+			}
+		}
+
+		// product := unary (('*' | '/') unary)*
+		private Node product() {
+			Node node = unary();
+			while (true) {
+				if (accept('*')) {
+					node = fold(new Arithmetic('*', node, unary()));
+				}
+				else if (accept('/')) {
+					node = fold(new Arithmetic('/', node, unary()));
+				}
+				else {
+					return node;
+				}
+			}
+		}
+
+		// unary := '-' unary | number | name | name '(' arguments ')' | '(' sum ')'
+		private Node unary() {
+			if (accept('-')) {
+				return fold(new Negation(unary()));
+			}
+			if (accept('(')) {
+				Node node = expression();
+				expect(')');
+				return node;
+			}
+			skipSpace();
+			int start = position;
+			if (position < text.length() && (Character.isDigit(text.charAt(position)) || text.charAt(position) == '.')) {
+				while (position < text.length() && (Character.isDigit(text.charAt(position)) || text.charAt(position) == '.'
+						|| text.charAt(position) == 'e' || text.charAt(position) == 'E'
+						|| ((text.charAt(position) == '-' || text.charAt(position) == '+')
+								&& (text.charAt(position-1) == 'e' || text.charAt(position-1) == 'E')))) {
+					position++;
+				}
+				try {
+					return new Constant(Double.parseDouble(text.substring(start, position)));
+				} catch (NumberFormatException e) {
+					position = start;
+					throw error("malformed number");
+				}
+			}
+			String name = name();
+			if (name.isEmpty()) {
+				throw error(position < text.length() ? "unexpected '"+text.charAt(position)+"'" : "formula ends too early");
+			}
+			if (name.equals("x") || name.equals("y")) {
+				position += 1;
+				return name.equals("x") ? new X(pattern) : new Y(pattern);
+			}
+			if (name.equals("rgb")) {
+				throw error("rgb(...) must be the whole formula", start);
+			}
+			List<Node> arguments = arguments(name, start);
+			if (name.equals("blend")) {
+				return fold(new Blend(arguments.get(0), arguments.get(1), arguments.get(2)));
+			}
+			if (name.equals("min") || name.equals("max")) {
+				return fold(new MinMax(name.equals("max"), arguments.get(0), arguments.get(1)));
+			}
+			double[] numbers = numbers(name, arguments, start);
+			if (name.equals("gradient")) {
+				return new Gradient(pattern, numbers[0]);
+			}
+			if (name.equals("radial") || name.equals("circle")) {
+				return new Circle(pattern, numbers[0], numbers[1], numbers[2], name.equals("radial"));
+			}
+			if (name.equals("rect")) {
+				return new Rect(pattern, numbers[0], numbers[1], numbers[2], numbers[3]);
+			}
+			if (name.equals("checker")) {
+				return new Checker(pattern, numbers[0], numbers[1]);
+			}
+			return new Noise(numbers[0]);
+		}
+
+		// the arguments of a known function, checking their number
+		private List<Node> arguments(String name, int start) {
+			int count = argumentCount(name);
+			if (count < 0) {
+				throw error("unknown function '"+name+"'", start);
+			}
+			position += name.length();
+			expect('(');
+			List<Node> arguments = new ArrayList<Node>();
+			if (!accept(')')) {
+				do {
+					arguments.add(expression());
+				} while (accept(','));
+				expect(')');
+			}
+			if (arguments.size() != count) {
+				throw error(name+"() needs "+count+" argument"+(count == 1 ? "" : "s"), start);
+			}
+			return arguments;
+		}
+
+		private static int argumentCount(String name) {
+			String[] names = { "gradient", "noise", "checker", "min", "max", "radial", "circle", "blend", "rgb", "rect" };
+			int[] counts = { 1, 1, 2, 2, 2, 3, 3, 3, 3, 4 };
+			for (int index = 0; index < names.length; index++) {
+				if (names[index].equals(name)) {
+					return counts[index];
+				}
+			}
+			return -1;
+		}
+
+		// the values of arguments that must not depend on the position
+		private double[] numbers(String name, List<Node> arguments, int start) {
+			double[] numbers = new double[arguments.size()];
+			for (int index = 0; index < numbers.length; index++) {
+				Node argument = arguments.get(index);
+				if (!argument.isConstant()) {
+					throw error("the arguments of "+name+"() must be numbers", start);
+				}
+				numbers[index] = ((Constant) argument).value;
+			}
+			return numbers;
+		}
+
+		// a node whose children are all constant is computed right away
+		private Node fold(Node node) {
+			for (Node child : node.children) {
+				if (!child.isConstant()) {
+					return node;
+				}
+			}
+			node.allocate(0);
+			double[][] rows = new double[node.register+1][1];
+			return new Constant(node.evaluate(0, 0, 1, rows)[0]);
+		}
+
+		// the name (of a function or variable) at the current position in lower case, without
+		// taking it; empty if there is none
+		private String name() {
+			int end = position;
+			while (end < text.length() && Character.isLetter(text.charAt(end))) {
+				end++;
+			}
+			return text.substring(position, end).toLowerCase(Locale.ROOT);
+		}
+
+		private void skipSpace() {
+			while (position < text.length()) {
+				char c = text.charAt(position);
+				if (c == '#') {
+					while (position < text.length() && text.charAt(position) != '\n') {
+						position++;
+					}
+				}
+				else if (Character.isWhitespace(c)) {
+					position++;
+				}
+				else {
+					return;
+				}
+			}
+		}
+
+		private boolean accept(char c) {
+			skipSpace();
+			if (position < text.length() && text.charAt(position) == c) {
+				position++;
+				return true;
+			}
+			return false;
+		}
+
+		private void expect(char c) {
+			if (!accept(c)) {
+				throw error("'"+c+"' expected");
+			}
+		}
+
+		private IllegalArgumentException error(String message) {
+			skipSpace();
+			return error(message, position);
+		}
+
+		private IllegalArgumentException error(String message, int at) {
+			return new IllegalArgumentException("Formula, character "+(at+1)+": "+message);
+		}
+	}
+}
@@ -0,0 +1,225 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+
+import ij.IJ;
+
+// writes a pattern of any size to a file, one band of rows at a time, so that only
+// a few megabytes of the image are in memory at any time. rows wider than a band
+// are written in pieces. the output is either raw (8 bit gray or interleaved 8 bit
+// RGB, no header) or an uncompressed tiff, which is written as BigTIFF if it
+// doesn't fit into the 4 GB of a classic tiff.
+public class PatternWriter {
+
+	// maximum size of the pixels of one band, in bytes of the file
+	private static final int BAND_BYTES = 16*1024*1024;
+
+	// tiff field types
+	private static final short SHORT = 3, LONG = 4, LONG8 = 16;
+
+	// write the pixels of the pattern as raw data, row after row
+	public static void writeRaw(GeneratorPattern pattern, File file) throws IOException {
+		RandomAccessFile out = new RandomAccessFile(file, "rw");
+		try {
+			out.setLength(0);
+			writePixels(pattern, out.getChannel(), 0);
+		} finally {
+			out.close();
+		}
+	}
+
+	// write the pattern as an uncompressed tiff with one strip per band
+	public static void writeTiff(GeneratorPattern pattern, File file) throws IOException {
+		long width = pattern.getWidth();
+		long height = pattern.getHeight();
+		int bytesPerPixel = bytesPerPixel(pattern);
+		long dataBytes = width*height*bytesPerPixel;
+		int rowsPerStrip = rowsPerBand(pattern);
+		long strips = (height + rowsPerStrip - 1) / rowsPerStrip;
+
+		// a classic tiff addresses 4 GB, including the strip tables behind the pixels
+		boolean big = dataBytes + 16*strips + 1024 > 0xffffffffL;
+		long dataStart = big ? 16 : 8;
+		long ifdStart = (dataStart + dataBytes + 1) & ~1L;
+
+		RandomAccessFile out = new RandomAccessFile(file, "rw");
+		try {
+			out.setLength(0);
+			FileChannel channel = out.getChannel();
+			writePixels(pattern, channel, dataStart);
+
+			// header, pointing to the directory behind the pixels
+			ByteBuffer header = ByteBuffer.allocate((int) dataStart);
+			header.put((byte) 'M').put((byte) 'M');
+			if (big) {
+				header.putShort((short) 43).putShort((short) 8).putShort((short) 0).putLong(ifdStart);
+			}
+			else {
+				header.putShort((short) 42).putInt((int) ifdStart);
+			}
+			header.flip();
+			channel.write(header, 0);
+
+			// the directory, followed by the values that don't fit into its entries
+			boolean rgb = bytesPerPixel == 3;
+			int entries = 10;
+			int fieldSize = big ? 8 : 4;
+			long external = ifdStart + (big ? 8 + 20*entries + 8 : 2 + 12*entries + 4);
+			long bitsOffset = external;
+			boolean bitsInline = !rgb || big;
+			if (!bitsInline) {
+				external += 6;
+			}
+			int offsetSize = big ? 8 : 4;
+			boolean stripsInline = strips*offsetSize <= fieldSize;
+			long offsetsOffset = external;
+			long countsOffset = external + (stripsInline ? 0 : strips*offsetSize);
+			short offsetType = big ? LONG8 : LONG;
+
+			channel.position(ifdStart);
+			DataOutputStream ifd = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel), 65536));
+			if (big) {
+				ifd.writeLong(entries);
+			}
+			else {
+				ifd.writeShort(entries);
+			}
+			entry(ifd, big, 256, LONG, 1, width);
+			entry(ifd, big, 257, LONG, 1, height);
+			if (bitsInline) {
+				// three shorts fit into the 8 bytes of a BigTIFF entry
+				entry(ifd, big, 258, SHORT, rgb ? 3 : 1, rgb ? 0x0008000800080000L : 8);
+			}
+			else {
+				entry(ifd, big, 258, SHORT, 3, bitsOffset);
+			}
+			entry(ifd, big, 259, SHORT, 1, 1);
+			entry(ifd, big, 262, SHORT, 1, rgb ? 2 : 1);
+			long stripBytes = width*rowsPerStrip*bytesPerPixel;
+			entry(ifd, big, 273, offsetType, strips, stripsInline ? dataStart : offsetsOffset);
+			entry(ifd, big, 277, SHORT, 1, bytesPerPixel);
+			entry(ifd, big, 278, LONG, 1, rowsPerStrip);
+			entry(ifd, big, 279, offsetType, strips, stripsInline ? Math.min(stripBytes, dataBytes) : countsOffset);
+			entry(ifd, big, 284, SHORT, 1, 1);
+
+			// no further directory
+			if (big) {
+				ifd.writeLong(0);
+			}
+			else {
+				ifd.writeInt(0);
+			}
+			if (!bitsInline) {
+				ifd.writeShort(8);
+				ifd.writeShort(8);
+				ifd.writeShort(8);
+			}
+			if (!stripsInline) {
+				for (long strip = 0; strip < strips; strip++) {
+					writeOffset(ifd, big, dataStart + strip*stripBytes);
+				}
+				for (long strip = 0; strip < strips; strip++) {
+					writeOffset(ifd, big, Math.min(stripBytes, dataBytes - strip*stripBytes));
+				}
+			}
+			ifd.flush();
+		} finally {
+			out.close();
+		}
+	}
+
+	// compute the pattern band by band and write its pixels to the channel, starting at position
+	private static void writePixels(GeneratorPattern pattern, FileChannel channel, long position) throws IOException {
+		int width = pattern.getWidth();
+		int height = pattern.getHeight();
+		int bytesPerPixel = bytesPerPixel(pattern);
+		int rows = rowsPerBand(pattern);
+		int columns = (int) Math.min(width, BAND_BYTES / bytesPerPixel);
+		if (width == 0 || height == 0) {
+			return;
+		}
+
+		// buffers for one band, reused for all bands
+		byte[] gray = bytesPerPixel == 1 ? new byte[rows*columns] : null;
+		int[] rgb = bytesPerPixel == 3 ? new int[rows*columns] : null;
+		ByteBuffer bytes = bytesPerPixel == 1 ? ByteBuffer.wrap(gray) : ByteBuffer.allocate(rows*columns*3);
+
+		for (int y = 0; y < height; y += rows) {
+			int bandRows = Math.min(rows, height - y);
+
+			// a band is either a number of whole rows, or a piece of a single row
+			for (int x = 0; x < width; x += columns) {
+				int n = Math.min(columns, width - x);
+				bytes.clear();
+				if (gray != null) {
+					GeneratorEngine.fillTile(pattern, x, y, n, bandRows, gray);
+					bytes.limit(n*bandRows);
+				}
+				else {
+					GeneratorEngine.fillTile(pattern, x, y, n, bandRows, rgb);
+					for (int index = 0; index < n*bandRows; index++) {
+						int c = rgb[index];
+						bytes.put((byte) (c >> 16)).put((byte) (c >> 8)).put((byte) c);
+					}
+					bytes.flip();
+				}
+				while (bytes.hasRemaining()) {
+					position += channel.write(bytes, position);
+				}
+			}
+			IJ.showProgress(y + bandRows, height);
+		}
+	}
+
+	// number of rows per band, at least one
+	private static int rowsPerBand(GeneratorPattern pattern) {
+		long rowBytes = (long) pattern.getWidth()*bytesPerPixel(pattern);
+		return (int) Math.max(1, Math.min(pattern.getHeight(), BAND_BYTES / Math.max(1, rowBytes)));
+	}
+
+	private static int bytesPerPixel(GeneratorPattern pattern) {
+		return pattern.getBitDepth() == 8 ? 1 : 3;
+	}
+
+	// one directory entry with a value that fits into the entry, or the offset of the values
+	private static void entry(DataOutputStream out, boolean big, int tag, short type, long count, long value) throws IOException {
+		out.writeShort(tag);
+		out.writeShort(type);
+		if (big) {
+			out.writeLong(count);
+		}
+		else {
+			out.writeInt((int) count);
+		}
+		boolean inline = count*(type == SHORT ? 2 : type == LONG ? 4 : 8) <= (big ? 8 : 4);
+		if (inline && type == SHORT && count == 1) {
+			// values are left aligned within the field
+			out.writeShort((int) value);
+			out.writeShort(0);
+			if (big) {
+				out.writeInt(0);
+			}
+		}
+		else if (inline && type == LONG && count == 1 && big) {
+			out.writeInt((int) value);
+			out.writeInt(0);
+		}
+		else {
+			writeOffset(out, big, value);
+		}
+	}
+
+	private static void writeOffset(DataOutputStream out, boolean big, long value) throws IOException {
+		if (big) {
+			out.writeLong(value);
+		}
+		else {
+			out.writeInt((int) value);
+		}
+	}
+}
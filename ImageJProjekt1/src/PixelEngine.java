@@ -0,0 +1,163 @@
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+
+// runs per-pixel work on all cores. an image is split into bands of whole rows,
+// and every band is traversed row by row, which matches the memory layout of
+// the pixel arrays of ImageJ.
+public class PixelEngine {
+
+	// bands smaller than this number of pixels are not worth a separate task
+	private static final int MIN_PIXELS_PER_BAND = 64*1024;
+
+	// number of bands per thread, so that faster threads can steal work
+	private static final int BANDS_PER_THREAD = 4;
+
+	// work to be done on the rows firstRow..endRow-1 of an image
+	public interface RowTask {
+		void processRows(int firstRow, int endRow);
+	}
+
+	// work on the rows firstRow..endRow-1 that produces a partial result,
+	// plus the way two partial results are combined into one
+	public interface RowReduction<T> {
+		T processRows(int firstRow, int endRow);
+		T combine(T first, T second);
+	}
+
+	// number of threads to be used, and a switch to compare against plain single threaded runs
+	private static int threads = Runtime.getRuntime().availableProcessors();
+	private static boolean singleThreaded = Boolean.getBoolean("pixelengine.singleThreaded");
+
+	// the pool shared by all images, created on first use
+	private static ForkJoinPool pool;
+
+	// force all work onto the calling thread (or allow multiple threads again)
+	public static synchronized void setSingleThreaded(boolean singleThreaded) {
+		PixelEngine.singleThreaded = singleThreaded;
+	}
+
+	public static synchronized boolean isSingleThreaded() {
+		return singleThreaded;
+	}
+
+	// change the number of threads; the pool is recreated on next use
+	public static synchronized void setThreads(int threads) {
+		if (threads < 1) {
+			throw new IllegalArgumentException("number of threads must be positive: "+threads);
+		}
+		if (threads != PixelEngine.threads && pool != null) {
+			pool.shutdown();
+			pool = null;
+		}
+		PixelEngine.threads = threads;
+	}
+
+	public static synchronized int getThreads() {
+		return singleThreaded ? 1 : threads;
+	}
+
+	private static synchronized ForkJoinPool getPool() {
+		if (pool == null) {
+			pool = new ForkJoinPool(threads);
+		}
+		return pool;
+	}
+
+	// number of rows per band for an image of the given size, or 0 if
+	// the image should be processed on the calling thread in one go
+	private static int rowsPerBand(int width, int height) {
+		int threads = getThreads();
+		if (threads == 1 || width <= 0 || (long)width*height < 2*MIN_PIXELS_PER_BAND) {
+			return 0;
+		}
+		int minRows = (MIN_PIXELS_PER_BAND + width - 1) / width;
+		int rows = (height + threads*BANDS_PER_THREAD - 1) / (threads*BANDS_PER_THREAD);
+		return Math.max(minRows, rows);
+	}
+
+	// run the task on all rows of an image with the given size
+	public static void forEachBand(int width, int height, RowTask task) {
+		int rows = rowsPerBand(width, height);
+		if (rows == 0) {
+			task.processRows(0, height);
+			return;
+		}
+		invoke(new BandAction(task, 0, height, rows));
+	}
+
+	// run the reduction on all rows of an image with the given size and combine the partial results
+	public static <T> T reduce(int width, int height, RowReduction<T> reduction) {
+		int rows = rowsPerBand(width, height);
+		if (rows == 0) {
+			return reduction.processRows(0, height);
+		}
+		return invoke(new BandReduction<T>(reduction, 0, height, rows));
+	}
+
+	// run a task in the pool, or directly if we already are in a worker thread
+	private static <T> T invoke(ForkJoinTask<T> task) {
+		if (ForkJoinTask.inForkJoinPool()) {
+			return task.invoke();
+		}
+		return getPool().invoke(task);
+	}
+
+	// splits its rows in halves until they fit into one band
+	private static class BandAction extends RecursiveAction {
+
+		private static final long serialVersionUID = 2760924357913370941L;
+
+		private final RowTask task;
+		private final int firstRow, endRow, rowsPerBand;
+
+		BandAction(RowTask task, int firstRow, int endRow, int rowsPerBand) {
+			this.task = task;
+			this.firstRow = firstRow;
+			this.endRow = endRow;
+			this.rowsPerBand = rowsPerBand;
+		}
+
+		@Override
+		protected void compute() {
+			if (endRow - firstRow <= rowsPerBand) {
+				task.processRows(firstRow, endRow);
+				return;
+			}
+			int middle = (firstRow + endRow) >>> 1;
+			invokeAll(new BandAction(task, firstRow, middle, rowsPerBand),
+					new BandAction(task, middle, endRow, rowsPerBand));
+		}
+	}
+
+	// splits its rows in halves until they fit into one band, then combines the results
+	private static class BandReduction<T> extends RecursiveTask<T> {
+
+		private static final long serialVersionUID = -4127069853527165202L;
+
+		private final RowReduction<T> reduction;
+		private final int firstRow, endRow, rowsPerBand;
+
+		BandReduction(RowReduction<T> reduction, int firstRow, int endRow, int rowsPerBand) {
+			this.reduction = reduction;
+			this.firstRow = firstRow;
+			this.endRow = endRow;
+			this.rowsPerBand = rowsPerBand;
+		}
+
+		@Override
+		protected T compute() {
+			if (endRow - firstRow <= rowsPerBand) {
+				return reduction.processRows(firstRow, endRow);
+			}
+			int middle = (firstRow + endRow) >>> 1;
+			BandReduction<T> upper = new BandReduction<T>(reduction, firstRow, middle, rowsPerBand);
+			BandReduction<T> lower = new BandReduction<T>(reduction, middle, endRow, rowsPerBand);
+			lower.fork();
+			T first = upper.compute();
+			T second = lower.join();
+			return reduction.combine(first, second);
+		}
+	}
+}
@@ -0,0 +1,199 @@
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// timing of the stages of rendering, for finding out where the time goes. every
+// stage has a histogram of its durations with one bucket per power of two
+// nanoseconds, plus the number of pixels it processed. while switched off, start()
+// returns 0 and stop() returns right away, so the cost is a single field read.
+public class RenderMetrics {
+
+	// the stages that are timed
+	public enum Stage {
+		// min/max and histogram scan of the input
+		HISTOGRAM,
+		// rebuilding the lookup table (window, inversion and clipping)
+		TABLE,
+		// mapping input pixels to output colors
+		RENDER,
+		// subsampled rendering while a slider is dragged
+		PREVIEW,
+		// building the downsampled copies of a large image (MipmapPyramid)
+		PYRAMID,
+		// getting the output on screen (updateAndDraw or repainting rows)
+		DRAW
+	}
+
+	// buckets per stage: bucket b counts durations of 2^b..2^(b+1)-1 ns, in the JSON export as "histogram"
+	private static final int BUCKETS = 40;
+
+	private static final int STAGES = Stage.values().length;
+
+	private volatile boolean enabled = false;
+
+	// per stage, in order of Stage: count, total nanos, max nanos, pixels and the buckets
+	private final AtomicLongArray counts = new AtomicLongArray(STAGES);
+	private final AtomicLongArray totals = new AtomicLongArray(STAGES);
+	private final AtomicLongArray maxima = new AtomicLongArray(STAGES);
+	private final AtomicLongArray pixels = new AtomicLongArray(STAGES);
+	private final AtomicLongArray buckets = new AtomicLongArray(STAGES*BUCKETS);
+
+	public void setEnabled(boolean enabled) {
+		this.enabled = enabled;
+	}
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	// the start time of a measurement, 0 if switched off
+	public long start() {
+		return enabled ? System.nanoTime() : 0;
+	}
+
+	// finish a measurement begun with start(); the stage processed the given number of pixels
+	public void stop(Stage stage, long start, long pixelCount) {
+		if (start == 0) {
+			return;
+		}
+		long nanos = Math.max(1, System.nanoTime() - start);
+		int index = stage.ordinal();
+		counts.incrementAndGet(index);
+		totals.addAndGet(index, nanos);
+		pixels.addAndGet(index, pixelCount);
+		buckets.incrementAndGet(index*BUCKETS + Math.min(BUCKETS-1, 63 - Long.numberOfLeadingZeros(nanos)));
+		long max;
+		while (nanos > (max = maxima.get(index)) && !maxima.compareAndSet(index, max, nanos)) {
+			// retry, another thread was faster
+		}
+	}
+
+	// forget everything measured so far
+	public void reset() {
+		for (int index = 0; index < STAGES; index++) {
+			counts.set(index, 0);
+			totals.set(index, 0);
+			maxima.set(index, 0);
+			pixels.set(index, 0);
+		}
+		for (int index = 0; index < buckets.length(); index++) {
+			buckets.set(index, 0);
+		}
+	}
+
+	public long getCount(Stage stage) {
+		return counts.get(stage.ordinal());
+	}
+
+	public double getTotalMillis(Stage stage) {
+		return totals.get(stage.ordinal()) / 1e6;
+	}
+
+	public double getMeanMillis(Stage stage) {
+		long count = getCount(stage);
+		return count == 0 ? 0 : getTotalMillis(stage) / count;
+	}
+
+	public double getMaxMillis(Stage stage) {
+		return maxima.get(stage.ordinal()) / 1e6;
+	}
+
+	// an upper bound for the given percentile (0..100) of the durations, from the buckets
+	public double getPercentileMillis(Stage stage, double percent) {
+		long count = getCount(stage);
+		if (count == 0) {
+			return 0;
+		}
+		double needed = Math.max(1, Math.ceil(count * percent / 100));
+		long sum = 0;
+		for (int bucket = 0; bucket < BUCKETS; bucket++) {
+			sum += buckets.get(stage.ordinal()*BUCKETS + bucket);
+			if (sum >= needed) {
+				return Math.min(getMaxMillis(stage), ((2L << bucket) - 1) / 1e6);
+			}
+		}
+		return getMaxMillis(stage);
+	}
+
+	// pixels processed per second of time spent in the stage
+	public double getPixelsPerSecond(Stage stage) {
+		long nanos = totals.get(stage.ordinal());
+		return nanos == 0 ? 0 : pixels.get(stage.ordinal()) * 1e9 / nanos;
+	}
+
+	// the counters of the render scheduler, for the reports
+	private static final String[] SCHEDULER_COUNTERS = { "requests", "coalesced", "renders", "skipped", "lastLatencyMs", "maxLatencyMs" };
+
+	private static double[] schedulerValues(RenderScheduler<?> scheduler) {
+		return new double[] { scheduler.getRequestCount(), scheduler.getCoalescedCount(), scheduler.getRenderCount(),
+				scheduler.getSkippedCount(), scheduler.getLastLatencyMillis(), scheduler.getMaxLatencyMillis() };
+	}
+
+	// a table for the ImageJ log; the scheduler may be null
+	public String toText(RenderScheduler<?> scheduler) {
+		StringBuilder text = new StringBuilder();
+		text.append(String.format(Locale.US, "%-10s %8s %9s %9s %9s %9s %9s %10s%n",
+				"stage", "count", "mean ms", "p50 ms", "p95 ms", "p99 ms", "max ms", "Mpixel/s"));
+		for (Stage stage : Stage.values()) {
+			text.append(String.format(Locale.US, "%-10s %8d %9.3f %9.3f %9.3f %9.3f %9.3f %10.1f%n",
+					stage.name().toLowerCase(), getCount(stage), getMeanMillis(stage), getPercentileMillis(stage, 50),
+					getPercentileMillis(stage, 95), getPercentileMillis(stage, 99), getMaxMillis(stage),
+					getPixelsPerSecond(stage) / 1e6));
+		}
+		if (scheduler != null) {
+			double[] values = schedulerValues(scheduler);
+			for (int i = 0; i < values.length; i++) {
+				text.append(i == 0 ? "" : ", ").append(SCHEDULER_COUNTERS[i]).append('=')
+						.append(String.format(Locale.US, i < 4 ? "%.0f" : "%.1f", values[i]));
+			}
+		}
+		return text.toString();
+	}
+
+	// one line per stage, plus one line per scheduler counter
+	public String toCSV(RenderScheduler<?> scheduler) {
+		StringBuilder csv = new StringBuilder("stage,count,totalMs,meanMs,p50Ms,p95Ms,p99Ms,maxMs,pixelsPerSecond\n");
+		for (Stage stage : Stage.values()) {
+			csv.append(String.format(Locale.US, "%s,%d,%.6f,%.6f,%.6f,%.6f,%.6f,%.6f,%.1f%n",
+					stage.name().toLowerCase(), getCount(stage), getTotalMillis(stage), getMeanMillis(stage),
+					getPercentileMillis(stage, 50), getPercentileMillis(stage, 95), getPercentileMillis(stage, 99),
+					getMaxMillis(stage), getPixelsPerSecond(stage)));
+		}
+		if (scheduler != null) {
+			csv.append("\ncounter,value\n");
+			double[] values = schedulerValues(scheduler);
+			for (int i = 0; i < values.length; i++) {
+				csv.append(SCHEDULER_COUNTERS[i]).append(',').append(String.format(Locale.US, "%.3f", values[i])).append('\n');
+			}
+		}
+		return csv.toString();
+	}
+
+	// the same as a JSON object with one member per stage and one for the scheduler
+	public String toJSON(RenderScheduler<?> scheduler) {
+		StringBuilder json = new StringBuilder("{\n  \"stages\": {");
+		for (Stage stage : Stage.values()) {
+			int index = stage.ordinal();
+			json.append(index == 0 ? "\n" : ",\n");
+			json.append(String.format(Locale.US, "    \"%s\": {\"count\": %d, \"totalMs\": %.6f, \"meanMs\": %.6f, "
+					+"\"p50Ms\": %.6f, \"p95Ms\": %.6f, \"p99Ms\": %.6f, \"maxMs\": %.6f, \"pixelsPerSecond\": %.1f, \"histogram\": [",
+					stage.name().toLowerCase(), getCount(stage), getTotalMillis(stage), getMeanMillis(stage),
+					getPercentileMillis(stage, 50), getPercentileMillis(stage, 95), getPercentileMillis(stage, 99),
+					getMaxMillis(stage), getPixelsPerSecond(stage)));
+			for (int bucket = 0; bucket < BUCKETS; bucket++) {
+				json.append(bucket == 0 ? "" : ", ").append(buckets.get(index*BUCKETS + bucket));
+			}
+			json.append("]}");
+		}
+		json.append("\n  }");
+		if (scheduler != null) {
+			json.append(",\n  \"scheduler\": {");
+			double[] values = schedulerValues(scheduler);
+			for (int i = 0; i < values.length; i++) {
+				json.append(i == 0 ? "" : ", ").append('"').append(SCHEDULER_COUNTERS[i]).append("\": ")
+						.append(String.format(Locale.US, "%.3f", values[i]));
+			}
+			json.append("}");
+		}
+		return json.append("\n}\n").toString();
+	}
+}
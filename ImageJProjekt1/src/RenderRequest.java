@@ -0,0 +1,17 @@
+// a request to the render thread: the settings to render, and the step of a
+// quick subsampled preview that is good enough for now (e.g. while a slider is
+// being dragged), or 1 for a full resolution frame
+public final class RenderRequest {
+
+	public final WindowSettings settings;
+	public final int previewStep;
+
+	public RenderRequest(WindowSettings settings, int previewStep) {
+		this.settings = settings;
+		this.previewStep = Math.max(1, previewStep);
+	}
+
+	public boolean isPreview() {
+		return previewStep > 1;
+	}
+}
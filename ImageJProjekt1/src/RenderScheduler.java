@@ -0,0 +1,244 @@
+import java.lang.reflect.InvocationTargetException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.swing.SwingUtilities;
+
+import ij.IJ;
+
+// renders an output image away from the Swing event dispatch thread (EDT).
+// bursts of render requests are coalesced: while a frame is being rendered,
+// newer requests simply replace each other, and only the latest one is
+// rendered next. frames that are already superseded when they are done are
+// not published, unless that would keep the display from updating for longer
+// than the maximum frame interval. a scheduler either has a render thread of its
+// own, or runs on a pool shared with other schedulers, e.g. of linked images: then
+// the images are rendered at the same time, but every one still renders its
+// requests one after the other and publishes each frame as soon as it is ready.
+public class RenderScheduler<S> {
+
+	// the actual work, render() runs on the render thread, publish() on the EDT
+	public interface Renderer<S> {
+		void render(S settings);
+		void publish();
+	}
+
+	// a pending request; since is the time of the oldest request it replaces
+	private static class Request<S> {
+		final S settings;
+		final long since;
+
+		Request(S settings, long since) {
+			this.settings = settings;
+			this.since = since;
+		}
+	}
+
+	private final Renderer<S> renderer;
+
+	// where the requests are rendered, and the render thread if it's our own
+	private final Executor workers;
+	private final ThreadPoolExecutor worker;
+
+	// the pool shared by schedulers, created on first use
+	private static ThreadPoolExecutor sharedWorkers;
+
+	// the latest request that has not been picked up by the render thread yet
+	private final AtomicReference<Request<S>> pending = new AtomicReference<Request<S>>();
+
+	// true while the render thread is busy with our requests
+	private final AtomicBoolean running = new AtomicBoolean(false);
+
+	// a superseded frame is published anyway if the last one is older than this
+	private volatile long maxFrameIntervalNanos = TimeUnit.MILLISECONDS.toNanos(100);
+
+	// statistics; requests are counted by the callers, everything else by the render thread
+	private volatile long requests, renders, coalesced, skipped;
+	private volatile long lastLatencyNanos, maxLatencyNanos;
+
+	// time of the last published frame and the oldest request not shown yet
+	private long lastPublished = System.nanoTime();
+	private long unpublishedSince = Long.MAX_VALUE;
+
+	public RenderScheduler(Renderer<S> renderer, final String name) {
+		this.renderer = renderer;
+
+		// a single render thread that goes away while there is nothing to do
+		worker = new ThreadPoolExecutor(1, 1, 5, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+				new ThreadFactory() {
+					@Override
+					public Thread newThread(Runnable runnable) {
+						Thread thread = new Thread(runnable, name);
+						thread.setDaemon(true);
+						return thread;
+					}
+				});
+		worker.allowCoreThreadTimeOut(true);
+		workers = worker;
+	}
+
+	// a scheduler that renders on the given threads, e.g. getSharedWorkers()
+	public RenderScheduler(Renderer<S> renderer, Executor workers) {
+		this.renderer = renderer;
+		this.workers = workers;
+		this.worker = null;
+	}
+
+	// a bounded pool of render threads for all schedulers that share it, one per core
+	// (at least two). the threads go away while there is nothing to do.
+	public static synchronized Executor getSharedWorkers() {
+		if (sharedWorkers == null) {
+			int threads = Math.max(2, Runtime.getRuntime().availableProcessors());
+			final AtomicInteger count = new AtomicInteger();
+			sharedWorkers = new ThreadPoolExecutor(threads, threads, 5, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+					new ThreadFactory() {
+						@Override
+						public Thread newThread(Runnable runnable) {
+							Thread thread = new Thread(runnable, "RenderScheduler worker "+count.incrementAndGet());
+							thread.setDaemon(true);
+							return thread;
+						}
+					});
+			sharedWorkers.allowCoreThreadTimeOut(true);
+		}
+		return sharedWorkers;
+	}
+
+	// ask for a frame with the given settings to be rendered; may be called from any thread
+	public void schedule(S settings) {
+		long now = System.nanoTime();
+		Request<S> previous;
+		Request<S> request;
+		do {
+			previous = pending.get();
+			request = new Request<S>(settings, previous == null ? now : previous.since);
+		} while (!pending.compareAndSet(previous, request));
+
+		synchronized (this) {
+			requests++;
+			if (previous != null) {
+				coalesced++;
+			}
+		}
+		if (running.compareAndSet(false, true)) {
+			workers.execute(drain);
+		}
+	}
+
+	// render until there are no more pending requests
+	private final Runnable drain = new Runnable() {
+		@Override
+		public void run() {
+			while (true) {
+				Request<S> request = pending.getAndSet(null);
+				if (request == null) {
+					running.set(false);
+					// a request may have slipped in after we looked
+					if (pending.get() != null && running.compareAndSet(false, true)) {
+						continue;
+					}
+					return;
+				}
+				renderOne(request);
+			}
+		}
+	};
+
+	private void renderOne(Request<S> request) {
+		try {
+			renderer.render(request.settings);
+		} catch (RuntimeException e) {
+			// keep the render thread alive, the next request may well succeed
+			IJ.handleException(e);
+			return;
+		}
+		renders++;
+		unpublishedSince = Math.min(unpublishedSince, request.since);
+
+		// don't show a frame that is already outdated, unless the display would lag behind too far
+		long now = System.nanoTime();
+		if (pending.get() != null && now - lastPublished < maxFrameIntervalNanos) {
+			skipped++;
+			return;
+		}
+		publish();
+	}
+
+	// hand the frame to the EDT and wait until it is on screen
+	private void publish() {
+		try {
+			SwingUtilities.invokeAndWait(new Runnable() {
+				@Override
+				public void run() {
+					renderer.publish();
+				}
+			});
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return;
+		} catch (InvocationTargetException e) {
+			IJ.handleException(e.getCause());
+			return;
+		}
+		lastPublished = System.nanoTime();
+		lastLatencyNanos = lastPublished - unpublishedSince;
+		maxLatencyNanos = Math.max(maxLatencyNanos, lastLatencyNanos);
+		unpublishedSince = Long.MAX_VALUE;
+	}
+
+	// a superseded frame is still published if the previous one is older than this
+	public void setMaxFrameInterval(long millis) {
+		maxFrameIntervalNanos = TimeUnit.MILLISECONDS.toNanos(millis);
+	}
+
+	public long getMaxFrameInterval() {
+		return TimeUnit.NANOSECONDS.toMillis(maxFrameIntervalNanos);
+	}
+
+	// true if a render is in progress or pending
+	public boolean isBusy() {
+		return running.get() || pending.get() != null;
+	}
+
+	// number of render requests
+	public long getRequestCount() {
+		return requests;
+	}
+
+	// number of requests that were replaced by a newer one before they were rendered
+	public long getCoalescedCount() {
+		return coalesced;
+	}
+
+	// number of frames rendered, and how many of them were not shown because they were outdated
+	public long getRenderCount() {
+		return renders;
+	}
+
+	public long getSkippedCount() {
+		return skipped;
+	}
+
+	// time from the oldest request contained in a frame until that frame was on screen
+	public double getLastLatencyMillis() {
+		return lastLatencyNanos / 1e6;
+	}
+
+	public double getMaxLatencyMillis() {
+		return maxLatencyNanos / 1e6;
+	}
+
+	// stop the render thread; pending requests are dropped. a shared pool keeps running.
+	public void shutdown() {
+		pending.set(null);
+		if (worker != null) {
+			worker.shutdownNow();
+		}
+	}
+}
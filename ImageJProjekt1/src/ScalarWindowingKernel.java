@@ -0,0 +1,23 @@
+// the plain Java version of the windowing loops, a table lookup per pixel
+public class ScalarWindowingKernel implements WindowingKernel {
+
+	@Override
+	public void apply(WindowingTable table, short[] inPixels, int[] outPixels, int from, int to) {
+		final int[] colors = table.getTable();
+		for (int index = from; index < to; index++) {
+			outPixels[index] = colors[inPixels[index] & 0xffff];
+		}
+	}
+
+	@Override
+	public int minMax(short[] pixels, int from, int to) {
+		int min = 65535;
+		int max = 0;
+		for (int index = from; index < to; index++) {
+			int value = pixels[index] & 0xffff;
+			min = Math.min(min, value);
+			max = Math.max(max, value);
+		}
+		return min << 16 | max;
+	}
+}
@@ -0,0 +1,290 @@
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// a bounded cache of rendered RGB slices of a stack, least recently used
+// slices are dropped first. every slice remembers the settings it was rendered
+// with; if they don't match any more, the slice is rendered again into the
+// same buffer. neighbours of the visible slice can be prefetched in the background.
+// off heap, the slices are kept in pooled direct buffers instead of int arrays,
+// and only the slices handed out to ImageJ are copied to the heap.
+public class SliceCache {
+
+	// renders one slice of the input into an RGB buffer, using the given table
+	public interface SliceRenderer {
+		void renderSlice(int slice, WindowSettings settings, WindowingTable table, int[] outPixels);
+		void renderSlice(int slice, WindowSettings settings, WindowingTable table, IntBuffer outPixels);
+	}
+
+	// a rendered slice, either on the heap or in a direct buffer
+	private static class Entry {
+		final int[] pixels;
+		ByteBuffer bytes;
+		IntBuffer buffer;
+		WindowSettings settings;
+
+		// true once the entry has been dropped, its buffer may belong to another entry by now
+		boolean released;
+
+		Entry(int pixels, DirectBufferPool pool) {
+			if (pool != null) {
+				this.pixels = null;
+				bytes = pool.acquire(4*pixels);
+				buffer = bytes.asIntBuffer();
+			}
+			else {
+				this.pixels = new int[pixels];
+			}
+		}
+	}
+
+	private final SliceRenderer renderer;
+	private final int pixelsPerSlice, capacity;
+
+	// where the slices are kept off heap, null for int arrays on the heap
+	private final DirectBufferPool pool;
+
+	// slice number -> rendered slice, in order of access
+	private final LinkedHashMap<Integer, Entry> entries;
+
+	// background prefetching with its own table, so it never waits for the foreground
+	private final ThreadPoolExecutor prefetcher;
+	private final WindowingTable prefetchTable = new WindowingTable();
+	private final AtomicInteger prefetchGeneration = new AtomicInteger();
+
+	// number of slices on either side of the visible one that are prefetched
+	private volatile int prefetchRadius = 2;
+
+	// the cache holds as many slices as fit into maxBytes, but at least the
+	// visible slice plus its prefetched neighbours
+	public SliceCache(SliceRenderer renderer, int pixelsPerSlice, long maxBytes) {
+		this(renderer, pixelsPerSlice, maxBytes, null);
+	}
+
+	// same, but keep the slices in direct buffers from the given pool (if not null)
+	public SliceCache(SliceRenderer renderer, int pixelsPerSlice, long maxBytes, DirectBufferPool pool) {
+		this.renderer = renderer;
+		this.pixelsPerSlice = pixelsPerSlice;
+		this.pool = pool;
+		this.capacity = (int) Math.max(2*prefetchRadius + 1, Math.min(Integer.MAX_VALUE, maxBytes / (4L*pixelsPerSlice)));
+		entries = new LinkedHashMap<Integer, Entry>(16, 0.75f, true) {
+			private static final long serialVersionUID = -1416218337519562735L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Integer, Entry> eldest) {
+				if (size() > capacity) {
+					release(eldest.getValue());
+					return true;
+				}
+				return false;
+			}
+		};
+
+		// a single low priority thread that goes away while there is nothing to do
+		prefetcher = new ThreadPoolExecutor(1, 1, 5, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+				new ThreadFactory() {
+					@Override
+					public Thread newThread(Runnable runnable) {
+						Thread thread = new Thread(runnable, "SliceCache prefetch");
+						thread.setDaemon(true);
+						thread.setPriority(Thread.MIN_PRIORITY);
+						return thread;
+					}
+				});
+		prefetcher.allowCoreThreadTimeOut(true);
+	}
+
+	// the rendered pixels of a slice, rendered now if they are missing or outdated.
+	// the table is only used while the calling thread holds its lock.
+	public int[] get(int slice, WindowSettings settings, WindowingTable table) {
+		return get(slice, settings, table, null);
+	}
+
+	// same; off heap, the pixels are copied into target (a new array if it is null).
+	// on the heap, the cached array itself is returned.
+	public int[] get(int slice, WindowSettings settings, WindowingTable table, int[] target) {
+		while (true) {
+			Entry entry = entry(slice);
+			synchronized (entry) {
+				if (entry.released) {
+					// dropped meanwhile, take a new one
+					continue;
+				}
+				render(slice, entry, settings, table);
+				if (entry.pixels != null) {
+					return entry.pixels;
+				}
+				if (target == null) {
+					target = new int[pixelsPerSlice];
+				}
+				IntBuffer pixels = entry.buffer.duplicate();
+				pixels.clear();
+				pixels.get(target, 0, pixelsPerSlice);
+				return target;
+			}
+		}
+	}
+
+	// render the slice into its entry, unless it is up to date. the caller holds the lock of the entry.
+	private void render(int slice, Entry entry, WindowSettings settings, WindowingTable table) {
+		if (!settings.equals(entry.settings)) {
+			synchronized (table) {
+				if (entry.pixels != null) {
+					renderer.renderSlice(slice, settings, table, entry.pixels);
+				}
+				else {
+					renderer.renderSlice(slice, settings, table, entry.buffer);
+				}
+			}
+			entry.settings = settings;
+		}
+	}
+
+	// make sure the slice is rendered, without copying it anywhere
+	private void prepare(int slice, WindowSettings settings, WindowingTable table) {
+		while (true) {
+			Entry entry = entry(slice);
+			synchronized (entry) {
+				if (!entry.released) {
+					render(slice, entry, settings, table);
+					return;
+				}
+			}
+		}
+	}
+
+	// true if the slices are kept in direct buffers
+	public boolean isOffHeap() {
+		return pool != null;
+	}
+
+	// true if the slice is cached with the given settings
+	public boolean contains(int slice, WindowSettings settings) {
+		Entry entry;
+		synchronized (entries) {
+			entry = entries.get(slice);
+		}
+		if (entry == null) {
+			return false;
+		}
+		synchronized (entry) {
+			return settings.equals(entry.settings);
+		}
+	}
+
+	// render the slice again when it's asked for next, e.g. because its input has been edited
+	public void invalidate(int slice) {
+		Entry entry;
+		synchronized (entries) {
+			entry = entries.get(slice);
+		}
+		if (entry != null) {
+			synchronized (entry) {
+				entry.settings = null;
+			}
+		}
+	}
+
+	// render all slices again when they are asked for next, e.g. because the whole stack has been edited
+	public void invalidateAll() {
+		List<Entry> all;
+		synchronized (entries) {
+			all = new ArrayList<Entry>(entries.values());
+		}
+		for (Entry entry : all) {
+			synchronized (entry) {
+				entry.settings = null;
+			}
+		}
+	}
+
+	// cached entry of a slice, created if necessary
+	private Entry entry(int slice) {
+		synchronized (entries) {
+			Entry entry = entries.get(slice);
+			if (entry == null) {
+				entry = new Entry(pixelsPerSlice, pool);
+				entries.put(slice, entry);
+			}
+			return entry;
+		}
+	}
+
+	// render the neighbours of the given slice in the background. prefetches
+	// for a previously visible slice that have not started yet are dropped.
+	// nothing is prefetched any more once the cache has been disposed.
+	public synchronized void prefetch(final int slice, final int firstSlice, final int lastSlice, final WindowSettings settings) {
+		if (prefetcher.isShutdown()) {
+			return;
+		}
+		final int generation = prefetchGeneration.incrementAndGet();
+		for (int distance = 1; distance <= prefetchRadius; distance++) {
+			for (int neighbour : new int[] { slice + distance, slice - distance }) {
+				if (neighbour < firstSlice || neighbour > lastSlice || contains(neighbour, settings)) {
+					continue;
+				}
+				final int next = neighbour;
+				prefetcher.execute(new Runnable() {
+					@Override
+					public void run() {
+						if (generation == prefetchGeneration.get()) {
+							prepare(next, settings, prefetchTable);
+						}
+					}
+				});
+			}
+		}
+	}
+
+	// number of slices on either side of the visible one to prefetch
+	public void setPrefetchRadius(int prefetchRadius) {
+		this.prefetchRadius = Math.max(0, prefetchRadius);
+	}
+
+	public int getPrefetchRadius() {
+		return prefetchRadius;
+	}
+
+	// maximum number of cached slices
+	public int getCapacity() {
+		return capacity;
+	}
+
+	// give the buffer of a dropped entry back to the pool, once nobody renders into it any more
+	private void release(Entry entry) {
+		synchronized (entry) {
+			entry.released = true;
+			if (entry.bytes != null) {
+				pool.release(entry.bytes);
+				entry.bytes = null;
+				entry.buffer = null;
+			}
+		}
+	}
+
+	// drop all cached slices, e.g. while the output is not shown. the cache can still be used.
+	public void clear() {
+		synchronized (entries) {
+			for (Entry entry : entries.values()) {
+				release(entry);
+			}
+			entries.clear();
+		}
+	}
+
+	// stop prefetching and drop all cached slices. slices can still be rendered, e.g. for
+	// an output that is still shown, but not prefetched.
+	public synchronized void dispose() {
+		prefetchGeneration.incrementAndGet();
+		prefetcher.shutdownNow();
+		clear();
+	}
+}
@@ -0,0 +1,342 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+
+import ij.Prefs;
+
+// statistics of image files that have been opened before, so that reopening a large
+// image neither scans all its pixels again nor forgets the window it was shown with.
+// there is one small binary file per image in the cache directory, named after a
+// hash of the image's path. it is only used if the image file still has the same
+// size, modification time and hash of its first and last 64 KB. the cache holds at
+// most maxBytes, the files used least recently are deleted first.
+public class StatsCache {
+
+	// "D16S", and the version of the format below
+	private static final int MAGIC = 0x44313653;
+	private static final int VERSION = 1;
+
+	// bytes at the start and at the end of an image file that are hashed
+	private static final int HASHED_BYTES = 64*1024;
+
+	private static final String EXTENSION = ".d16s";
+
+	// the cache in the ImageJ preferences directory, created on first use
+	private static StatsCache shared;
+
+	private final File directory;
+	private long maxBytes;
+
+	// what is cached for an image file
+	public static class Entry {
+		public final int width, height, slices;
+		public final Histogram16 histogram;
+
+		// single images: smallest and largest value of every row, null for stacks
+		public final char[] rowMin, rowMax;
+
+		// the window last used, valid if hasWindow
+		public final boolean hasWindow;
+		public final int windowCenter, windowWidth;
+
+		public Entry(int width, int height, int slices, Histogram16 histogram, char[] rowMin, char[] rowMax,
+				boolean hasWindow, int windowCenter, int windowWidth) {
+			this.width = width;
+			this.height = height;
+			this.slices = slices;
+			this.histogram = histogram;
+			this.rowMin = rowMin;
+			this.rowMax = rowMax;
+			this.hasWindow = hasWindow;
+			this.windowCenter = windowCenter;
+			this.windowWidth = windowWidth;
+		}
+	}
+
+	public StatsCache(File directory, long maxBytes) {
+		this.directory = directory;
+		this.maxBytes = maxBytes;
+	}
+
+	// 64 MB in the ImageJ preferences directory
+	public static synchronized StatsCache getShared() {
+		if (shared == null) {
+			shared = new StatsCache(new File(Prefs.getPrefsDir(), "Display16BitAsRGB-stats"), 64L*1024*1024);
+		}
+		return shared;
+	}
+
+	// the statistics of the image file with the given dimensions, null if they are not
+	// cached or the file has changed since. outdated or broken entries are deleted.
+	public synchronized Entry load(File image, int width, int height, int slices) {
+		File file = cacheFile(image);
+		if (!file.isFile() || !image.isFile()) {
+			return null;
+		}
+		try {
+			DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 65536));
+			try {
+				if (in.readInt() != MAGIC || in.readShort() != VERSION || !in.readUTF().equals(image.getAbsolutePath())
+						|| in.readLong() != image.length() || in.readLong() != image.lastModified() || in.readLong() != contentHash(image)
+						|| in.readInt() != width || in.readInt() != height || in.readInt() != slices) {
+					in.close();
+					file.delete();
+					return null;
+				}
+				boolean hasWindow = in.readBoolean();
+				int windowCenter = in.readInt();
+				int windowWidth = in.readInt();
+
+				// row ranges, as deltas of min and max from the previous row
+				int rows = readVarInt(in);
+				if (rows != 0 && rows != height) {
+					throw new IOException("Wrong number of rows");
+				}
+				char[] rowMin = rows > 0 ? new char[rows] : null;
+				char[] rowMax = rows > 0 ? new char[rows] : null;
+				int min = 0, max = 0;
+				for (int row = 0; row < rows; row++) {
+					min += readSignedVarInt(in);
+					max += readSignedVarInt(in);
+					rowMin[row] = (char) min;
+					rowMax[row] = (char) max;
+				}
+
+				// the bins that are not empty, as the distance from the previous one and the count
+				Histogram16 histogram = new Histogram16();
+				int bins = readVarInt(in);
+				int value = -1;
+				for (int bin = 0; bin < bins; bin++) {
+					value += readVarInt(in);
+					histogram.add(value, readVarLong(in));
+				}
+
+				// most recently used files are kept longest
+				file.setLastModified(System.currentTimeMillis());
+				return new Entry(width, height, slices, histogram, rowMin, rowMax, hasWindow, windowCenter, windowWidth);
+			} finally {
+				in.close();
+			}
+		} catch (IOException e) {
+			file.delete();
+			return null;
+		} catch (RuntimeException e) {
+			// e.g. a value out of range in a damaged file
+			file.delete();
+			return null;
+		}
+	}
+
+	// remember the statistics of an image file, then drop old entries if the cache has become too large
+	public synchronized void save(File image, Entry entry) throws IOException {
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			throw new IOException("Can't create "+directory);
+		}
+		File file = cacheFile(image);
+		File temporary = new File(directory, file.getName()+".tmp");
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporary), 65536));
+		try {
+			out.writeInt(MAGIC);
+			out.writeShort(VERSION);
+			out.writeUTF(image.getAbsolutePath());
+			out.writeLong(image.length());
+			out.writeLong(image.lastModified());
+			out.writeLong(contentHash(image));
+			out.writeInt(entry.width);
+			out.writeInt(entry.height);
+			out.writeInt(entry.slices);
+			out.writeBoolean(entry.hasWindow);
+			out.writeInt(entry.windowCenter);
+			out.writeInt(entry.windowWidth);
+
+			int rows = entry.rowMin != null ? entry.rowMin.length : 0;
+			writeVarInt(out, rows);
+			int min = 0, max = 0;
+			for (int row = 0; row < rows; row++) {
+				writeSignedVarInt(out, entry.rowMin[row] - min);
+				writeSignedVarInt(out, entry.rowMax[row] - max);
+				min = entry.rowMin[row];
+				max = entry.rowMax[row];
+			}
+
+			Histogram16 histogram = entry.histogram;
+			int bins = 0;
+			for (int value = 0; value < Histogram16.SIZE; value++) {
+				if (histogram.getCount(value) != 0) {
+					bins++;
+				}
+			}
+			writeVarInt(out, bins);
+			int previous = -1;
+			for (int value = 0; value < Histogram16.SIZE; value++) {
+				long count = histogram.getCount(value);
+				if (count != 0) {
+					writeVarInt(out, value - previous);
+					writeVarLong(out, count);
+					previous = value;
+				}
+			}
+		} finally {
+			out.close();
+		}
+		file.delete();
+		if (!temporary.renameTo(file)) {
+			temporary.delete();
+			throw new IOException("Can't write "+file);
+		}
+		evict();
+	}
+
+	// delete the files used least recently until the cache fits into maxBytes
+	private void evict() {
+		File[] files = directory.listFiles();
+		if (files == null) {
+			return;
+		}
+		long total = 0;
+		for (File file : files) {
+			total += file.length();
+		}
+		if (total <= maxBytes) {
+			return;
+		}
+		final long[] modified = new long[files.length];
+		Integer[] order = new Integer[files.length];
+		for (int i = 0; i < files.length; i++) {
+			modified[i] = files[i].lastModified();
+			order[i] = i;
+		}
+		Arrays.sort(order, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer a, Integer b) {
+				return Long.compare(modified[a], modified[b]);
+			}
+		});
+		for (int i = 0; i < order.length && total > maxBytes; i++) {
+			File file = files[order[i]];
+			if (file.getName().endsWith(EXTENSION)) {
+				long length = file.length();
+				if (file.delete()) {
+					total -= length;
+				}
+			}
+		}
+	}
+
+	// forget the statistics of an image file
+	public synchronized void remove(File image) {
+		cacheFile(image).delete();
+	}
+
+	public synchronized void setMaxBytes(long maxBytes) {
+		this.maxBytes = maxBytes;
+		evict();
+	}
+
+	public synchronized long getMaxBytes() {
+		return maxBytes;
+	}
+
+	public File getDirectory() {
+		return directory;
+	}
+
+	// the cache file of an image file, named after a hash of its path
+	private File cacheFile(File image) {
+		byte[] hash = sha1(image.getAbsolutePath().getBytes(StandardCharsets.UTF_8), null);
+		StringBuilder name = new StringBuilder();
+		for (int i = 0; i < 16; i++) {
+			name.append(String.format("%02x", hash[i] & 0xff));
+		}
+		return new File(directory, name.append(EXTENSION).toString());
+	}
+
+	// a hash of the first and last 64 KB of a file, to notice files that have been replaced
+	// with the same size and time. reading all of it would cost as much as the scan it saves.
+	static long contentHash(File image) throws IOException {
+		RandomAccessFile in = new RandomAccessFile(image, "r");
+		try {
+			long length = in.length();
+			byte[] head = new byte[(int) Math.min(HASHED_BYTES, length)];
+			in.readFully(head);
+			byte[] tail = new byte[(int) Math.min(HASHED_BYTES, length - head.length)];
+			in.seek(length - tail.length);
+			in.readFully(tail);
+			byte[] hash = sha1(head, tail);
+			long value = 0;
+			for (int i = 0; i < 8; i++) {
+				value = (value << 8) | (hash[i] & 0xff);
+			}
+			return value;
+		} finally {
+			in.close();
+		}
+	}
+
+	private static byte[] sha1(byte[] first, byte[] second) {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-1");
+			digest.update(first);
+			if (second != null) {
+				digest.update(second);
+			}
+			return digest.digest();
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	// unsigned numbers with 7 bits per byte, small numbers take a single byte
+	private static void writeVarLong(DataOutputStream out, long value) throws IOException {
+		while ((value & ~0x7fL) != 0) {
+			out.writeByte((int) (value & 0x7f) | 0x80);
+			value >>>= 7;
+		}
+		out.writeByte((int) value);
+	}
+
+	private static void writeVarInt(DataOutputStream out, int value) throws IOException {
+		writeVarLong(out, value & 0xffffffffL);
+	}
+
+	// signed numbers, zigzag encoded so that small negative numbers are short as well
+	private static void writeSignedVarInt(DataOutputStream out, int value) throws IOException {
+		writeVarInt(out, (value << 1) ^ (value >> 31));
+	}
+
+	private static long readVarLong(DataInputStream in) throws IOException {
+		long value = 0;
+		for (int shift = 0; shift < 64; shift += 7) {
+			int b = in.readUnsignedByte();
+			value |= (long) (b & 0x7f) << shift;
+			if ((b & 0x80) == 0) {
+				return value;
+			}
+		}
+		throw new IOException("Malformed number");
+	}
+
+	private static int readVarInt(DataInputStream in) throws IOException {
+		long value = readVarLong(in);
+		if (value < 0 || value > 0xffffffffL) {
+			throw new IOException("Malformed number");
+		}
+		return (int) value;
+	}
+
+	private static int readSignedVarInt(DataInputStream in) throws IOException {
+		int value = readVarInt(in);
+		return (value >>> 1) ^ -(value & 1);
+	}
+}
@@ -0,0 +1,125 @@
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// compiled lookup tables by their settings (window, display options and color map),
+// shared by all WindowingTables. going back to a combination that has been shown
+// recently, e.g. when switching between color maps, costs a lookup instead of a
+// rebuild. least recently used tables are dropped first, except for pinned ones,
+// e.g. the tables of window presets. the tables in the cache are never written again.
+public class TableCache {
+
+	// the cache used by WindowingTables that aren't given one, 32 tables are 8 MB
+	private static final TableCache shared = new TableCache(32);
+
+	// settings -> table, in order of access
+	private final LinkedHashMap<WindowSettings, int[]> tables = new LinkedHashMap<WindowSettings, int[]>(16, 0.75f, true);
+
+	private int capacity;
+
+	// tables that are kept until they are unpinned as often as they were pinned
+	private final HashMap<WindowSettings, int[]> pinned = new HashMap<WindowSettings, int[]>();
+	private final HashMap<WindowSettings, Integer> pins = new HashMap<WindowSettings, Integer>();
+
+	// statistics
+	private long hits = 0, misses = 0;
+
+	public TableCache(int capacity) {
+		this.capacity = Math.max(0, capacity);
+	}
+
+	public static TableCache getShared() {
+		return shared;
+	}
+
+	// the table for the settings, null if it's not in the cache
+	public synchronized int[] get(WindowSettings settings) {
+		int[] table = pinned.get(settings);
+		if (table == null) {
+			table = tables.get(settings);
+		}
+		if (table != null) {
+			hits++;
+		}
+		else {
+			misses++;
+		}
+		return table;
+	}
+
+	// add a table that has just been built; it must not be changed any more
+	public synchronized void put(WindowSettings settings, int[] table) {
+		tables.put(settings, table);
+		evict();
+	}
+
+	// keep the table for the settings regardless of the capacity, until unpin() is called as often
+	public synchronized void pin(WindowSettings settings, int[] table) {
+		Integer count = pins.get(settings);
+		pins.put(settings, count == null ? 1 : count+1);
+		if (count == null) {
+			pinned.put(settings, table);
+		}
+	}
+
+	// the table may be dropped again once nobody needs it pinned any more
+	public synchronized void unpin(WindowSettings settings) {
+		Integer count = pins.get(settings);
+		if (count == null) {
+			return;
+		}
+		if (count > 1) {
+			pins.put(settings, count-1);
+		}
+		else {
+			pins.remove(settings);
+			int[] table = pinned.remove(settings);
+			if (capacity > 0) {
+				tables.put(settings, table);
+				evict();
+			}
+		}
+	}
+
+	public synchronized int getPinnedCount() {
+		return pinned.size();
+	}
+
+	private void evict() {
+		while (tables.size() > capacity) {
+			tables.remove(tables.keySet().iterator().next());
+		}
+	}
+
+	// maximum number of tables, 0 switches the cache off
+	public synchronized void setCapacity(int capacity) {
+		this.capacity = Math.max(0, capacity);
+		evict();
+	}
+
+	public synchronized int getCapacity() {
+		return capacity;
+	}
+
+	public synchronized int getSize() {
+		return tables.size();
+	}
+
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	// drop all tables that are not pinned
+	public synchronized void clear() {
+		tables.clear();
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "Tables: "+tables.size()+" of "+capacity+", "+pinned.size()+" pinned, "+hits+" hits, "+misses+" misses";
+	}
+}
@@ -0,0 +1,133 @@
+import java.awt.event.InputEvent;
+import java.awt.event.KeyEvent;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import javax.swing.KeyStroke;
+
+import ij.IJ;
+import ij.Prefs;
+import ij.measure.Calibration;
+
+// a named window (center + width) that can be chosen with a key, e.g. the standard
+// windows of radiology. center and width are given in calibrated units if the image
+// is calibrated (Hounsfield units for CT), else in raw pixel values. the presets
+// are read from a text file in the ImageJ preferences directory, one per line:
+//
+//   # name; center; width; key
+//   Lunge; -600; 1500; F1
+//
+// the key is optional and written like for KeyStroke.getKeyStroke(), e.g. "F5" or "alt L".
+public final class WindowPreset {
+
+	// the file the presets are read from, if it exists
+	public static final String FILE_NAME = "Display16BitAsRGB-presets.txt";
+
+	// CT windows in Hounsfield units, used if there is no file
+	public static final List<WindowPreset> DEFAULTS = Collections.unmodifiableList(Arrays.asList(
+			new WindowPreset("Lunge", -600, 1500, KeyStroke.getKeyStroke("F1")),
+			new WindowPreset("Knochen", 400, 1800, KeyStroke.getKeyStroke("F2")),
+			new WindowPreset("Weichteil", 40, 400, KeyStroke.getKeyStroke("F3")),
+			new WindowPreset("Gehirn", 40, 80, KeyStroke.getKeyStroke("F4"))));
+
+	public final String name;
+	public final double center, width;
+
+	// the key that selects the preset, null for none
+	public final KeyStroke key;
+
+	public WindowPreset(String name, double center, double width, KeyStroke key) {
+		this.name = name;
+		this.center = center;
+		this.width = width;
+		this.key = key;
+	}
+
+	// the presets from the file in the preferences directory, or the defaults if there
+	// is none. a file that can't be read is reported in the log.
+	public static List<WindowPreset> loadDefault() {
+		File file = new File(Prefs.getPrefsDir(), FILE_NAME);
+		if (!file.isFile()) {
+			return DEFAULTS;
+		}
+		try {
+			return load(file);
+		} catch (IOException e) {
+			IJ.log("Display16BitAsRGB: "+e.getMessage());
+			return DEFAULTS;
+		}
+	}
+
+	// read presets from a text file, see above
+	public static List<WindowPreset> load(File file) throws IOException {
+		List<WindowPreset> presets = new ArrayList<WindowPreset>();
+		BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8));
+		try {
+			int number = 0;
+			for (String line = in.readLine(); line != null; line = in.readLine()) {
+				number++;
+				line = line.trim();
+				if (line.isEmpty() || line.startsWith("#")) {
+					continue;
+				}
+				String[] fields = line.split(";");
+				if (fields.length < 3 || fields.length > 4 || fields[0].trim().isEmpty()) {
+					throw new IOException(file.getName()+", line "+number+": expected name; center; width; key");
+				}
+				double center, width;
+				try {
+					center = Double.parseDouble(fields[1].trim());
+					width = Double.parseDouble(fields[2].trim());
+				} catch (NumberFormatException e) {
+					throw new IOException(file.getName()+", line "+number+": "+e.getMessage());
+				}
+				KeyStroke key = null;
+				if (fields.length == 4 && !fields[3].trim().isEmpty()) {
+					key = KeyStroke.getKeyStroke(fields[3].trim());
+					if (key == null) {
+						throw new IOException(file.getName()+", line "+number+": unknown key "+fields[3].trim());
+					}
+				}
+				presets.add(new WindowPreset(fields[0].trim(), center, width, key));
+			}
+		} finally {
+			in.close();
+		}
+		return presets;
+	}
+
+	// the window in raw pixel values of an image with the given calibration (null for
+	// none), with the display options and colors of the given settings
+	public WindowSettings toSettings(WindowSettings options, Calibration calibration) {
+		double low = center - width/2;
+		double high = center + width/2;
+		if (calibration != null && calibration.calibrated()) {
+			low = calibration.getRawValue(low);
+			high = calibration.getRawValue(high);
+		}
+		int rawLow = (int) Math.round(Math.min(low, high));
+		int rawHigh = (int) Math.round(Math.max(low, high));
+		return new WindowSettings(rawLow + (rawHigh-rawLow)/2, rawHigh-rawLow,
+				options.inverted, options.showLoClipping, options.showHiClipping, options.colorMap);
+	}
+
+	@Override
+	public String toString() {
+		return key != null ? name+" ("+keyText(key)+")" : name;
+	}
+
+	// e.g. "F1" or "Alt+L"
+	private static String keyText(KeyStroke key) {
+		String modifiers = InputEvent.getModifiersExText(key.getModifiers());
+		String text = KeyEvent.getKeyText(key.getKeyCode());
+		return modifiers.isEmpty() ? text : modifiers+"+"+text;
+	}
+}
@@ -0,0 +1,84 @@
+// the settings that determine how a 16 bit image is displayed. instances are
+// immutable, so a snapshot can safely be handed over to a render thread.
+public final class WindowSettings {
+
+	// window center + width
+	public final int center, width;
+
+	// display options
+	public final boolean inverted, showLoClipping, showHiClipping;
+
+	// the colors of the gray values within the window
+	public final ColorMap colorMap;
+
+	public WindowSettings(int center, int width, boolean inverted, boolean showLoClipping, boolean showHiClipping) {
+		this(center, width, inverted, showLoClipping, showHiClipping, ColorMap.GRAY);
+	}
+
+	public WindowSettings(int center, int width, boolean inverted, boolean showLoClipping, boolean showHiClipping, ColorMap colorMap) {
+		this.center = center;
+		this.width = width;
+		this.inverted = inverted;
+		this.showLoClipping = showLoClipping;
+		this.showHiClipping = showHiClipping;
+		this.colorMap = colorMap != null ? colorMap : ColorMap.GRAY;
+	}
+
+	// the same window with other colors
+	public WindowSettings withColorMap(ColorMap colorMap) {
+		return new WindowSettings(center, width, inverted, showLoClipping, showHiClipping, colorMap);
+	}
+
+	// a window from the lower to the upper percentile (0..100) of the pixel values in the
+	// histogram, so that a few outliers (e.g. hot or dead pixels) don't widen the window.
+	// percentiles outside 0..100 are clamped, and swapped if the lower one is the larger.
+	public static WindowSettings fromPercentiles(Histogram16 histogram, double lowPercentile, double highPercentile,
+			boolean inverted, boolean showLoClipping, boolean showHiClipping) {
+		int low = histogram.getPercentile(lowerPercentile(lowPercentile, highPercentile));
+		int high = histogram.getPercentile(upperPercentile(lowPercentile, highPercentile));
+		return new WindowSettings(low + (high-low)/2, high-low, inverted, showLoClipping, showHiClipping);
+	}
+
+	// the smaller and the larger of two percentiles, both clamped to 0..100
+	public static double lowerPercentile(double lowPercentile, double highPercentile) {
+		return Math.max(0, Math.min(100, Math.min(lowPercentile, highPercentile)));
+	}
+
+	public static double upperPercentile(double lowPercentile, double highPercentile) {
+		return Math.max(0, Math.min(100, Math.max(lowPercentile, highPercentile)));
+	}
+
+	// lower and upper border of the window
+	public int getLow() {
+		return center - (width/2);
+	}
+
+	public int getHigh() {
+		return center + (width/2);
+	}
+
+	@Override
+	public boolean equals(Object other) {
+		if (!(other instanceof WindowSettings)) {
+			return false;
+		}
+		WindowSettings settings = (WindowSettings) other;
+		return center == settings.center && width == settings.width && inverted == settings.inverted
+				&& showLoClipping == settings.showLoClipping && showHiClipping == settings.showHiClipping
+				&& colorMap.equals(settings.colorMap);
+	}
+
+	@Override
+	public int hashCode() {
+		int hash = center*31 + width;
+		hash = hash*8 + (inverted ? 4 : 0) + (showLoClipping ? 2 : 0) + (showHiClipping ? 1 : 0);
+		return hash*31 + colorMap.hashCode();
+	}
+
+	@Override
+	public String toString() {
+		return "center="+center+", width="+width+(inverted ? ", inverted" : "")
+				+(showLoClipping ? ", low clipping" : "")+(showHiClipping ? ", hi clipping" : "")
+				+(colorMap != ColorMap.GRAY ? ", "+colorMap : "");
+	}
+}
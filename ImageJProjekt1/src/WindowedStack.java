@@ -0,0 +1,35 @@
+import ij.ImageStack;
+import ij.VirtualStack;
+import ij.process.ColorProcessor;
+import ij.process.ImageProcessor;
+
+// the output of Display16BitAsRGB_ for a stack: a virtual RGB stack whose
+// slices are only windowed when they are displayed, e.g. while scrolling
+public class WindowedStack extends VirtualStack {
+
+	// the plugin that renders the slices, and the 16 bit input stack
+	private final Display16BitAsRGB_ model;
+	private final ImageStack input;
+
+	public WindowedStack(Display16BitAsRGB_ model, ImageStack input) {
+		super(input.getWidth(), input.getHeight(), input.getSize(), "RGB");
+		this.model = model;
+		this.input = input;
+	}
+
+	// render the slice with the current settings (or take it from the cache)
+	@Override
+	public ImageProcessor getProcessor(int n) {
+		return new ColorProcessor(getWidth(), getHeight(), model.getSlice(n));
+	}
+
+	@Override
+	public Object getPixels(int n) {
+		return model.getSlice(n);
+	}
+
+	@Override
+	public String getSliceLabel(int n) {
+		return input.getSliceLabel(n);
+	}
+}
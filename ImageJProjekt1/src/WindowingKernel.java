@@ -0,0 +1,14 @@
+// the innermost loops of the windowing: mapping pixels to colors, and finding
+// the smallest and largest pixel value. there is a scalar implementation, and a
+// vectorized one that is used when the platform supports it (see WindowingKernels).
+// all implementations produce exactly the same results.
+public interface WindowingKernel {
+
+	// map the input pixels with index from..to-1 to the colors of the table,
+	// which has been built for its current settings
+	void apply(WindowingTable table, short[] inPixels, int[] outPixels, int from, int to);
+
+	// smallest and largest unsigned value of the pixels with index from..to-1 (to > from),
+	// packed as min << 16 | max
+	int minMax(short[] pixels, int from, int to);
+}
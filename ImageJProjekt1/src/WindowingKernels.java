@@ -0,0 +1,88 @@
+import java.util.Arrays;
+import java.util.Random;
+
+import ij.IJ;
+
+// picks the windowing kernel. the vectorized kernel is compiled separately (see the
+// "vector" profile of the pom) and needs Java 17 or newer, started with
+// "--add-modules jdk.incubator.vector". if it isn't there, can't be loaded or
+// doesn't produce exactly the results of the scalar kernel, the scalar kernel is
+// used. the system property windowing.vector=false forces the scalar kernel.
+public class WindowingKernels {
+
+	private static final WindowingKernel SCALAR = new ScalarWindowingKernel();
+
+	private static volatile WindowingKernel kernel = load();
+
+	// the kernel to use
+	public static WindowingKernel get() {
+		return kernel;
+	}
+
+	// true if the vectorized kernel is in use
+	public static boolean isVectorized() {
+		return kernel != SCALAR;
+	}
+
+	// switch between the vectorized kernel (if available) and the scalar one, e.g. for benchmarks
+	public static void setVectorized(boolean vectorized) {
+		kernel = vectorized ? load() : SCALAR;
+	}
+
+	private static WindowingKernel load() {
+		if (!Boolean.parseBoolean(System.getProperty("windowing.vector", "true"))) {
+			return SCALAR;
+		}
+		WindowingKernel vector;
+		try {
+			vector = (WindowingKernel) Class.forName("VectorWindowingKernel").getDeclaredConstructor().newInstance();
+		} catch (Throwable e) {
+			// not compiled in, Java too old, or the incubator module isn't added
+			return SCALAR;
+		}
+		if (!matchesScalar(vector)) {
+			IJ.log("VectorWindowingKernel: results differ from the scalar kernel, not used");
+			return SCALAR;
+		}
+		return vector;
+	}
+
+	// compare a kernel with the scalar one on random pixels with a few different windows,
+	// options and all preset color maps, at odd offsets and lengths so that the loop
+	// tails are covered as well
+	static boolean matchesScalar(WindowingKernel candidate) {
+		try {
+			Random random = new Random(1);
+			short[] pixels = new short[4099];
+			for (int index = 0; index < pixels.length; index++) {
+				pixels[index] = (short) random.nextInt(65536);
+			}
+			int[] expected = new int[pixels.length];
+			int[] actual = new int[pixels.length];
+			WindowingTable table = new WindowingTable(null);
+			int[][] windows = { { 32768, 65535 }, { 1000, 1 }, { 1000, 0 }, { 0, 131070 }, { 40000, 777 }, { 70000, 3001 } };
+			for (int[] window : windows) {
+				for (ColorMap colorMap : ColorMap.PRESETS) {
+					for (int options = 0; options < 8; options++) {
+						table.update(new WindowSettings(window[0], window[1],
+								(options & 1) != 0, (options & 2) != 0, (options & 4) != 0, colorMap));
+						SCALAR.apply(table, pixels, expected, 3, pixels.length - 5);
+						candidate.apply(table, pixels, actual, 3, pixels.length - 5);
+						if (!Arrays.equals(expected, actual)) {
+							return false;
+						}
+					}
+				}
+			}
+			for (int length = 1; length < 100; length++) {
+				int from = random.nextInt(pixels.length - length);
+				if (SCALAR.minMax(pixels, from, from + length) != candidate.minMax(pixels, from, from + length)) {
+					return false;
+				}
+			}
+			return SCALAR.minMax(pixels, 0, pixels.length) == candidate.minMax(pixels, 0, pixels.length);
+		} catch (Throwable e) {
+			return false;
+		}
+	}
+}
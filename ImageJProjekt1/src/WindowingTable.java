@@ -0,0 +1,266 @@
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
+import java.util.Arrays;
+
+// a lookup table that maps every possible 16 bit pixel value directly to the
+// RGB color it is displayed with, for one combination of window, display options
+// and color map. built tables are kept in a TableCache, so a combination that has
+// been used recently is compiled only once.
+public class WindowingTable {
+
+	// number of different 16 bit pixel values
+	public static final int SIZE = 65536;
+
+	// colors to be used for low/hi clipping
+	public static final int COLOR_LOW  = 0x0000ff;
+	public static final int COLOR_HIGH = 0xff0000;
+
+	// pixels that are mapped at a time into a (direct) output buffer
+	private static final int CHUNK = 4096;
+
+	// one packed RGB color per (unsigned) input pixel value. a table that has been put
+	// into the cache (or taken from it) may be shared with other WindowingTables, so it's
+	// never written again; shared tells if it has.
+	private int[] table = new int[SIZE];
+	private boolean shared = false;
+
+	// where built tables are kept, null for none. a table of our own (one that is not in
+	// the cache) is spare after the next rebuild and filled again by the one after that.
+	private final TableCache cache;
+	private int[] spare;
+
+	// the settings the table currently holds, null if it has not been built yet
+	private WindowSettings settings;
+
+	// colors of the values below and above the window
+	private int belowColor, aboveColor;
+
+	// the range of values whose color was changed by the last rebuild
+	private int changedMin = SIZE, changedMax = -1;
+
+	// a table that shares the built tables with all others
+	public WindowingTable() {
+		this(TableCache.getShared());
+	}
+
+	// a table that keeps built tables in the given cache, or none if it is null
+	public WindowingTable(TableCache cache) {
+		this.cache = cache;
+	}
+
+	// build the table for the given settings ahead of time (unless the cache has it already)
+	// and pin it in the cache, so that switching to the settings later costs only a lookup
+	public static void precompile(WindowSettings settings, TableCache cache) {
+		WindowingTable table = new WindowingTable(cache);
+		table.update(settings);
+		cache.pin(settings, table.getTable());
+	}
+
+	// make sure the table matches the given settings. the table is only rebuilt if
+	// one of them has changed, which costs O(65536) independent of the image size,
+	// unless the table for the new settings is found in the cache.
+	// returns true if the table had to be rebuilt (or taken from the cache).
+	public boolean update(WindowSettings settings) {
+		return update(settings, true);
+	}
+
+	// same; if cached is false, the settings are only passed through (e.g. while a slider is
+	// dragged), and a table that has to be built is not put into the cache, where it would
+	// push out the tables that are used again, but into the spare array. it is put into the
+	// cache if it's updated with cached set for the same settings later, e.g. once the slider
+	// has settled.
+	public boolean update(WindowSettings settings, boolean cached) {
+		boolean caching = cached && cache != null && cache.getCapacity() > 0;
+		if (settings.equals(this.settings)) {
+			if (caching && !shared) {
+				cache.put(settings, table);
+				shared = true;
+			}
+			changedMin = SIZE;
+			changedMax = -1;
+			return false;
+		}
+		boolean first = this.settings == null;
+		this.settings = settings;
+		findBorderColors();
+		int[] built = cache != null ? cache.get(settings) : null;
+		boolean builtShared = built != null;
+		if (built == null) {
+			built = spare != null ? spare : new int[SIZE];
+			spare = null;
+			build(built);
+			if (caching) {
+				cache.put(settings, built);
+				builtShared = true;
+			}
+		}
+		int[] previous = table;
+		boolean previousShared = shared;
+		table = built;
+		shared = builtShared;
+		if (first) {
+			changedMin = 0;
+			changedMax = SIZE-1;
+		}
+		else {
+			findChangedRange(previous);
+		}
+		if (!previousShared) {
+			spare = previous;
+		}
+		return true;
+	}
+
+	// compare with the previous table to find the first and last value whose color has changed
+	private void findChangedRange(int[] previous) {
+		changedMin = 0;
+		while (changedMin < SIZE && table[changedMin] == previous[changedMin]) {
+			changedMin++;
+		}
+		changedMax = SIZE-1;
+		while (changedMax > changedMin && table[changedMax] == previous[changedMax]) {
+			changedMax--;
+		}
+		if (changedMin == SIZE) {
+			changedMax = -1;
+		}
+	}
+
+	// smallest and largest pixel value whose color was changed by the last update;
+	// changedMin > changedMax if nothing has changed
+	public int getChangedMin() {
+		return changedMin;
+	}
+
+	public int getChangedMax() {
+		return changedMax;
+	}
+
+	// the settings the table has been built for
+	public WindowSettings getSettings() {
+		return settings;
+	}
+
+	// colors below and above the window; inversion swaps the ends of the color map
+	// (black and white for gray), but the clipping markers keep their color
+	private void findBorderColors() {
+		ColorMap colorMap = settings.colorMap;
+		belowColor = settings.showLoClipping ? COLOR_LOW : colorMap.getColor(settings.inverted ? 255 : 0);
+		aboveColor = settings.showHiClipping ? COLOR_HIGH : colorMap.getColor(settings.inverted ? 0 : 255);
+	}
+
+	// fill the given table for the current settings
+	private void build(int[] table) {
+
+		// determine borders of window, without overflow for windows far outside of 0..65535
+		final int width = settings.width;
+		final boolean inverted = settings.inverted;
+		final ColorMap colorMap = settings.colorMap;
+		long low = (long) settings.center - width/2;
+		long high = (long) settings.center + width/2;
+
+		// everything up to and including the lower border, clamped to the table
+		int firstInside = (int) Math.max(0, Math.min(SIZE, low + 1));
+		Arrays.fill(table, 0, firstInside, belowColor);
+
+		// everything from the upper border on
+		int firstAbove = (int) Math.max(firstInside, Math.min(SIZE, high));
+		Arrays.fill(table, firstAbove, SIZE, aboveColor);
+		if (firstInside >= firstAbove) {
+			return;
+		}
+
+		// pixels within the window: subtract lower value, multiply by graytones, divide by width,
+		// then look up the color of the gray value. the division is a multiplication with a
+		// fixed-point reciprocal of the width and a shift: for numerators below 2^bits,
+		// (n*reciprocal) >> (bits + ceil(log2(width))) with reciprocal = 2^shift/width + 1 is
+		// exactly n/width (Granlund/Montgomery). with bits <= 30 the product fits into a long.
+		long maxNumerator = (firstAbove - 1 - low)*255;
+		int bits = 64 - Long.numberOfLeadingZeros(maxNumerator);
+		if (bits <= 30) {
+			int shift = bits + 32 - Integer.numberOfLeadingZeros(width - 1);
+			long reciprocal = (1L << shift) / width + 1;
+			long numerator = (firstInside - low)*255;
+			for (int value = firstInside; value < firstAbove; value++, numerator += 255) {
+				int gray = (int) ((numerator*reciprocal) >>> shift);
+				table[value] = colorMap.getColor(inverted ? 255 - gray : gray);
+			}
+		}
+		else {
+			// windows of more than 2^22 values don't occur for 16 bit images, but stay exact
+			for (int value = firstInside; value < firstAbove; value++) {
+				int gray = (int) ((value - low)*255/width);
+				table[value] = colorMap.getColor(inverted ? 255 - gray : gray);
+			}
+		}
+	}
+
+	// color of the values up to and including the lower border of the window
+	public int getBelowColor() {
+		return belowColor;
+	}
+
+	// color of the values from the upper border of the window on
+	public int getAboveColor() {
+		return aboveColor;
+	}
+
+	// the table itself, indexed by the unsigned pixel value
+	public int[] getTable() {
+		return table;
+	}
+
+	// color for a single pixel value
+	public int lookup(short pixel) {
+		return table[pixel & 0xffff];
+	}
+
+	// map all input pixels to output colors
+	public void apply(short[] inPixels, int[] outPixels) {
+		apply(inPixels, outPixels, 0, inPixels.length);
+	}
+
+	// map the input pixels with index from..to-1 to output colors, vectorized if possible
+	public void apply(short[] inPixels, int[] outPixels, int from, int to) {
+		WindowingKernels.get().apply(this, inPixels, outPixels, from, to);
+	}
+
+	// map the pixels with index from..to-1 of a (e.g. memory mapped) buffer to output colors
+	public void apply(ShortBuffer inPixels, int[] outPixels, int from, int to) {
+		final int[] table = this.table;
+		for (int index = from; index < to; index++) {
+			outPixels[index] = table[inPixels.get(index) & 0xffff];
+		}
+	}
+
+	// map the input pixels with index from..to-1 into a (e.g. direct) buffer at the same index.
+	// the colors are looked up into a small array first and then copied in bulk.
+	public void apply(short[] inPixels, IntBuffer outPixels, int from, int to) {
+		final int[] table = this.table;
+		int[] chunk = new int[Math.max(0, Math.min(CHUNK, to - from))];
+		IntBuffer out = outPixels.duplicate();
+		out.position(from);
+		for (int start = from; start < to; start += chunk.length) {
+			int n = Math.min(chunk.length, to - start);
+			for (int i = 0; i < n; i++) {
+				chunk[i] = table[inPixels[start+i] & 0xffff];
+			}
+			out.put(chunk, 0, n);
+		}
+	}
+
+	// same for input pixels from a (e.g. memory mapped) buffer
+	public void apply(ShortBuffer inPixels, IntBuffer outPixels, int from, int to) {
+		final int[] table = this.table;
+		int[] chunk = new int[Math.max(0, Math.min(CHUNK, to - from))];
+		IntBuffer out = outPixels.duplicate();
+		out.position(from);
+		for (int start = from; start < to; start += chunk.length) {
+			int n = Math.min(chunk.length, to - start);
+			for (int i = 0; i < n; i++) {
+				chunk[i] = table[inPixels.get(start+i) & 0xffff];
+			}
+			out.put(chunk, 0, n);
+		}
+	}
+}
@@ -0,0 +1,186 @@
+import static org.junit.Assert.assertArrayEquals;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+// the row kernels of GeneratorPatterns must compute exactly the pixels of the per pixel
+// loops of Bildgenerator_ they replaced, for the whole image and for any tile of it.
+// the reference methods below are those loops, only without the ImagePlus around them.
+public class GeneratorPatternsTest {
+
+	// odd, tiny and a few typical sizes; flags and chessboard are 3:2 and square in the plugin
+	private static final int[][] SIZES = { { 1, 1 }, { 2, 1 }, { 3, 2 }, { 7, 5 }, { 8, 8 }, { 31, 17 },
+			{ 100, 66 }, { 257, 171 }, { 333, 222 }, { 641, 427 }, { 1000, 1000 }, { 1024, 768 } };
+
+	private static final double[] SMOOTHING = { 0.0, 0.3, 0.8, 0.99 };
+
+	@Test
+	public void gradientGreyscale() {
+		for (int[] size : SIZES) {
+			assertPattern(new GeneratorPatterns.GradientGreyscale(size[0], size[1]), gradientGreyscale(size[0], size[1]));
+		}
+	}
+
+	@Test
+	public void gradientRedGreen() {
+		for (int[] size : SIZES) {
+			assertPattern(new GeneratorPatterns.GradientRedGreen(size[0], size[1]), gradientRedGreen(size[0], size[1]));
+		}
+	}
+
+	@Test
+	public void gradientRedGreenYellow() {
+		for (int[] size : SIZES) {
+			assertPattern(new GeneratorPatterns.GradientRedGreenYellow(size[0], size[1]), gradientRedGreenYellow(size[0], size[1]));
+		}
+	}
+
+	@Test
+	public void japaneseFlag() {
+		for (int[] size : SIZES) {
+			assertPattern(new GeneratorPatterns.JapaneseFlag(size[0], size[1]), japaneseSmoothFlag(size[0], size[1], 1));
+		}
+	}
+
+	@Test
+	public void japaneseSmoothFlag() {
+		for (int[] size : SIZES) {
+			for (double smoothingStart : SMOOTHING) {
+				assertPattern(new GeneratorPatterns.JapaneseSmoothFlag(size[0], size[1], smoothingStart),
+						japaneseSmoothFlag(size[0], size[1], smoothingStart));
+			}
+		}
+	}
+
+	@Test
+	public void chessboard() {
+		for (int[] size : SIZES) {
+			assertPattern(new GeneratorPatterns.Chessboard(size[0], size[1]), chessboard(size[0], size[1]));
+			assertPattern(new GeneratorPatterns.Chessboard(size[0], size[0]), chessboard(size[0], size[0]));
+		}
+	}
+
+	// the whole image, and a tile in the middle with odd borders
+	private static void assertPattern(GeneratorPattern pattern, byte[] expected) {
+		int width = pattern.getWidth(), height = pattern.getHeight();
+		byte[] pixels = new byte[width*height];
+		GeneratorEngine.fill(pattern, pixels);
+		assertArrayEquals(pattern.toString(), expected, pixels);
+
+		int x = width/3, y = height/4, tileWidth = Math.max(1, width/2 - 1), tileHeight = Math.max(1, height/2 + 1);
+		byte[] tile = new byte[tileWidth*tileHeight];
+		GeneratorEngine.fillTile(pattern, x, y, tileWidth, tileHeight, tile);
+		for (int row = 0; row < tileHeight; row++) {
+			int start = (y+row)*width + x;
+			assertArrayEquals(pattern+", tile row "+row, Arrays.copyOfRange(expected, start, start+tileWidth),
+					Arrays.copyOfRange(tile, row*tileWidth, (row+1)*tileWidth));
+		}
+	}
+
+	private static void assertPattern(GeneratorPattern pattern, int[] expected) {
+		int width = pattern.getWidth(), height = pattern.getHeight();
+		int[] pixels = new int[width*height];
+		GeneratorEngine.fill(pattern, pixels);
+		assertArrayEquals(pattern.toString(), expected, pixels);
+
+		int x = width/3, y = height/4, tileWidth = Math.max(1, width/2 - 1), tileHeight = Math.max(1, height/2 + 1);
+		int[] tile = new int[tileWidth*tileHeight];
+		GeneratorEngine.fillTile(pattern, x, y, tileWidth, tileHeight, tile);
+		for (int row = 0; row < tileHeight; row++) {
+			int start = (y+row)*width + x;
+			assertArrayEquals(pattern+", tile row "+row, Arrays.copyOfRange(expected, start, start+tileWidth),
+					Arrays.copyOfRange(tile, row*tileWidth, (row+1)*tileWidth));
+		}
+	}
+
+	private static byte[] gradientGreyscale(int width, int height) {
+		byte[] pixels = new byte[width*height];
+		for (int i = 0; i < width; i++) {
+			double interpol = i / (double) (width - 1);
+			byte value = (byte) (0 * (1 - interpol) + 255 * interpol);
+			for (int j = 0; j < height; j++) {
+				pixels[j * width + i] = value;
+			}
+		}
+		return pixels;
+	}
+
+	private static int[] gradientRedGreen(int width, int height) {
+		int[] pixels = new int[width*height];
+		for (int i = 0; i < width; i++) {
+			double interpol = i / (double) (width - 1);
+			int value = (int) (0 * (1 - interpol) + 255 * interpol);
+			for (int j = 0; j < height; j++) {
+				int red = 255 - value;
+				int green = value;
+				int blue = 0;
+				pixels[j * width + i] = ((red & 0xff) << 16) + ((green & 0xff) << 8) + (blue & 0xff);
+			}
+		}
+		return pixels;
+	}
+
+	private static int[] gradientRedGreenYellow(int width, int height) {
+		int[] pixels = new int[width*height];
+		for (int i = 0; i < width; i++) {
+			double interpolX = i / (double) (width - 1);
+			for (int j = 0; j < height; j++) {
+				double interpolY = j / (double) (height - 1);
+				double red1 = (1-interpolX)*255;
+				double green1 = interpolX*255;
+				double green2 = interpolY*255;
+				int red = (int) ((red1+255)/2);
+				int green = (int) ((green1+green2)/2);
+				int blue = 0;
+				pixels[j * width + i] = ((red & 0xff) << 16) + ((green & 0xff) << 8) + (blue & 0xff);
+			}
+		}
+		return pixels;
+	}
+
+	// with smoothingStart 1, nothing fades and this is the plain japanese flag
+	private static int[] japaneseSmoothFlag(int width, int height, double smoothingStart) {
+		int[] pixels = new int[width*height];
+		Arrays.fill(pixels, 0xffffffff);
+		for (int i = 0; i < width; i++) {
+			for (int j = 0; j < height; j++) {
+				double centerx = 0.5 * (double) width;
+				double centery = 0.5 * (double) height;
+				double radius = 0.3 * (double) height;
+				int centeri = (int) centerx;
+				int centerj = (int) centery;
+				double a = centeri - i;
+				double b = centerj - j;
+				double distance = Math.sqrt(a * a + b * b);
+				if (distance <= radius) {
+					double relativeDistance = distance / radius;
+					int red = 255;
+					int green = 0;
+					int blue = 0;
+					if (relativeDistance > smoothingStart) {
+						double value = (relativeDistance - smoothingStart) / (1 - smoothingStart) * 255;
+						green = (int) value;
+						blue = (int) value;
+					}
+					pixels[j * width + i] = ((red & 0xff) << 16) + ((green & 0xff) << 8) + (blue & 0xff);
+				}
+			}
+		}
+		return pixels;
+	}
+
+	private static byte[] chessboard(int width, int height) {
+		byte[] pixels = new byte[width*height];
+		for (int i = 0; i < width; i++) {
+			for (int j = 0; j < height; j++) {
+				double relFieldX = i/(double)width*8;
+				double relFieldY = j/(double)height*8;
+				if (((int)relFieldX % 2 == 0 && (int)relFieldY % 2 == 1) || ((int)relFieldX % 2 == 1) && ((int)relFieldY % 2 == 0)) {
+					pixels[j * width + i] = (byte) 255;
+				}
+			}
+		}
+		return pixels;
+	}
+}
@@ -0,0 +1,101 @@
+import static org.junit.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import ij.ImagePlus;
+import ij.gui.NewImage;
+import ij.process.ShortProcessor;
+
+// the steady state render loop of Display16BitAsRGB_ reuses the output buffer and the
+// tables: rendering with changing settings, like while a slider is dragged, allocates
+// no more than a few small objects per frame, however large the image is. the same
+// holds for the previews rendered from the pyramid.
+public class RenderAllocationTest {
+
+	// bytes a render may allocate, e.g. for the task that maps its rows
+	private static final long MAX_BYTES_PER_RENDER = 256;
+
+	private static final int WARMUP = 500, RENDERS = 200;
+
+	private static com.sun.management.ThreadMXBean threads;
+	private static boolean wasSingleThreaded;
+
+	@BeforeClass
+	public static void setUp() {
+		threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		threads.setThreadAllocatedMemoryEnabled(true);
+
+		// all work on this thread, where the allocations are counted
+		wasSingleThreaded = PixelEngine.isSingleThreaded();
+		PixelEngine.setSingleThreaded(true);
+	}
+
+	@AfterClass
+	public static void tearDown() {
+		PixelEngine.setSingleThreaded(wasSingleThreaded);
+	}
+
+	@Test
+	public void renderAllocatesNothingPerPixel() {
+		long small = allocatedPerRender(256, false);
+		long large = allocatedPerRender(1024, false);
+		assertTrue("256x256: "+small+" bytes per render", small <= MAX_BYTES_PER_RENDER);
+		assertTrue("1024x1024: "+large+" bytes per render", large <= MAX_BYTES_PER_RENDER);
+	}
+
+	@Test
+	public void pyramidPreviewAllocatesNothingPerPixel() {
+		long small = allocatedPerRender(256, true);
+		long large = allocatedPerRender(2048, true);
+		assertTrue("256x256: "+small+" bytes per preview", small <= MAX_BYTES_PER_RENDER);
+		assertTrue("2048x2048: "+large+" bytes per preview", large <= MAX_BYTES_PER_RENDER);
+	}
+
+	// average bytes allocated by a render of a size x size image with alternating settings,
+	// or by a preview from the pyramid, like while a slider is dragged
+	private static long allocatedPerRender(int size, boolean pyramidPreview) {
+		// 12 bit noise, as in a typical CT image
+		short[] pixels = new short[size*size];
+		Random random = new Random(42);
+		for (int index = 0; index < pixels.length; index++) {
+			pixels[index] = (short) random.nextInt(4096);
+		}
+		ImagePlus output = NewImage.createRGBImage("Output Image", size, size, 1, 0);
+		Display16BitAsRGB_ plugin = new Display16BitAsRGB_();
+		plugin.setImages(new ShortProcessor(size, size, pixels, null), output);
+		plugin.findMinMaxPixelValue();
+		plugin.calculateAutoWindow();
+		if (pyramidPreview) {
+			plugin.buildPyramidNow();
+		}
+
+		// the automatic window, and a slightly shifted one with clipping colors: every row changes
+		WindowSettings settings = plugin.getSettings();
+		WindowSettings other = new WindowSettings(settings.center+1, settings.width, false, true, true);
+
+		// both tables are built and cached, and the loop is compiled
+		for (int i = 0; i < WARMUP; i++) {
+			render(plugin, i % 2 == 0 ? settings : other, pyramidPreview);
+		}
+		long id = Thread.currentThread().getId();
+		long before = threads.getThreadAllocatedBytes(id);
+		for (int i = 0; i < RENDERS; i++) {
+			render(plugin, i % 2 == 0 ? settings : other, pyramidPreview);
+		}
+		return (threads.getThreadAllocatedBytes(id) - before) / RENDERS;
+	}
+
+	private static void render(Display16BitAsRGB_ plugin, WindowSettings settings, boolean pyramidPreview) {
+		if (pyramidPreview) {
+			plugin.calculatePreviewImage(settings, plugin.previewStep);
+		}
+		else {
+			plugin.calculateOutputImage(settings);
+		}
+	}
+}
@@ -0,0 +1,75 @@
+import static org.junit.Assert.assertArrayEquals;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+// the table built with the fixed-point reciprocal of the window width must be exactly
+// the one of the plain division (value - low)*255/width, for all 65536 pixel values
+public class WindowingTableTest {
+
+	// every width, with the window inside the value range and hanging over its upper end,
+	// where the largest numerator and so the shift of the reciprocal is smaller
+	@Test
+	public void everyWidth() {
+		WindowingTable table = new WindowingTable(null);
+		int[] expected = new int[WindowingTable.SIZE];
+		for (int width = 1; width < WindowingTable.SIZE; width++) {
+			for (int center : new int[] { 32768, 65535 }) {
+				WindowSettings settings = new WindowSettings(center, width, false, false, false);
+				table.update(settings);
+				divisionTable(settings, expected);
+				assertTable(settings, expected, table.getTable());
+			}
+		}
+	}
+
+	// every option and color map, on windows of a few typical and extreme widths
+	@Test
+	public void everyOption() {
+		WindowingTable table = new WindowingTable(null);
+		int[] expected = new int[WindowingTable.SIZE];
+		int[][] windows = { { 32768, 65535 }, { 32768, 65536 }, { 1000, 1 }, { 1000, 0 }, { 0, 131070 },
+				{ 40000, 777 }, { 70000, 3001 }, { -5000, 9000 }, { 2048, 4096 }, { 30000, 16385 },
+				{ Integer.MAX_VALUE/2, Integer.MAX_VALUE }, { Integer.MIN_VALUE/2, 100 } };
+		for (int[] window : windows) {
+			for (ColorMap colorMap : ColorMap.PRESETS) {
+				for (int options = 0; options < 8; options++) {
+					WindowSettings settings = new WindowSettings(window[0], window[1],
+							(options & 1) != 0, (options & 2) != 0, (options & 4) != 0, colorMap);
+					table.update(settings);
+					divisionTable(settings, expected);
+					assertTable(settings, expected, table.getTable());
+				}
+			}
+		}
+	}
+
+	// the table as it was built before the reciprocal, value by value: one division per value,
+	// with the unsigned pixel value compared to the borders of the window
+	private static void divisionTable(WindowSettings settings, int[] table) {
+		long low = (long) settings.center - settings.width/2;
+		long high = (long) settings.center + settings.width/2;
+		ColorMap colorMap = settings.colorMap;
+		int below = settings.showLoClipping ? WindowingTable.COLOR_LOW : colorMap.getColor(settings.inverted ? 255 : 0);
+		int above = settings.showHiClipping ? WindowingTable.COLOR_HIGH : colorMap.getColor(settings.inverted ? 0 : 255);
+		for (int value = 0; value < table.length; value++) {
+			if (value <= low) {
+				table[value] = below;
+			}
+			else if (value >= high) {
+				table[value] = above;
+			}
+			else {
+				int gray = (int) ((value - low)*255/settings.width);
+				table[value] = colorMap.getColor(settings.inverted ? 255 - gray : gray);
+			}
+		}
+	}
+
+	private static void assertTable(WindowSettings settings, int[] expected, int[] actual) {
+		if (!Arrays.equals(expected, actual)) {
+			assertArrayEquals("center "+settings.center+", width "+settings.width, expected, actual);
+		}
+	}
+}
@@ -0,0 +1,121 @@
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.ShortVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShape;
+import jdk.incubator.vector.VectorSpecies;
+
+// the windowing loops with the Java Vector API. instead of looking up every pixel
+// in the table, the window is computed for a whole vector of pixels at once:
+// subtract the lower border, scale, clamp to the clipping colors and pack to RGB,
+// or gather the colors of a color map other than gray from its 256 entries.
+// only loaded by WindowingKernels, which falls back to the scalar kernel if this
+// class or the jdk.incubator.vector module is not available.
+public class VectorWindowingKernel implements WindowingKernel {
+
+	// as many int lanes as the hardware has, and shorts with the same number of lanes
+	private static final VectorSpecies<Integer> INTS = IntVector.SPECIES_PREFERRED;
+	private static final VectorSpecies<Short> SHORTS = VectorSpecies.of(short.class, VectorShape.forBitSize(INTS.vectorBitSize() / 2));
+
+	// 1.5*2^23 and its bits: x + ROUND has the integer nearest to x (|x| < 2^22) in its mantissa
+	private static final float ROUND = 12582912f;
+	private static final int ROUND_BITS = 0x4B400000;
+
+	// for min/max, as many short lanes as the hardware has
+	private static final VectorSpecies<Short> ALL_SHORTS = ShortVector.SPECIES_PREFERRED;
+
+	@Override
+	public void apply(WindowingTable table, short[] inPixels, int[] outPixels, int from, int to) {
+		WindowSettings settings = table.getSettings();
+		int low = settings.getLow();
+		int high = settings.getHigh();
+		int width = settings.width;
+		int[] colors = table.getTable();
+
+		int below = table.getBelowColor();
+		int above = table.getAboveColor();
+
+		// the quotient is estimated with a float reciprocal and then corrected by
+		// one in either direction, which makes it exactly the integer quotient.
+		// lanes outside the window get nonsense here, they are replaced below
+		float reciprocal = 1f / width;
+		boolean inverted = settings.inverted;
+
+		// the colors of the gray values for a map other than gray, and room for the gray
+		// values of one vector to gather them with
+		ColorMap colorMap = settings.colorMap;
+		boolean gather = colorMap != ColorMap.GRAY;
+		int[] mapColors = null, grays = null;
+		if (gather) {
+			mapColors = new int[ColorMap.SIZE];
+			for (int gray = 0; gray < ColorMap.SIZE; gray++) {
+				mapColors[gray] = colorMap.getColor(gray);
+			}
+			grays = new int[INTS.length()];
+		}
+
+		int index = from;
+		for (int end = from + INTS.loopBound(to - from); index < end; index += INTS.length()) {
+			IntVector value = ((IntVector) ShortVector.fromArray(SHORTS, inPixels, index)
+					.convertShape(VectorOperators.S2I, INTS, 0)).and(0xffff);
+
+			// gray = (value-low)*255/width. adding 1.5*2^23 rounds the float to an integer in
+			// its lowest mantissa bits, which is a lot faster than converting it with F2I
+			IntVector numerator = value.sub(low).mul(255);
+			IntVector gray = ((FloatVector) numerator.convert(VectorOperators.I2F, 0))
+					.mul(reciprocal).add(ROUND).reinterpretAsInts().sub(ROUND_BITS);
+			gray = gray.sub(1, gray.mul(width).compare(VectorOperators.GT, numerator));
+			gray = gray.add(1, gray.add(1).mul(width).compare(VectorOperators.LE, numerator));
+			if (inverted) {
+				gray = gray.neg().add(255);
+			}
+
+			// pack to RGB, or take the color from the map, and replace the pixels outside the
+			// window by their colors. their gray values may be out of 0..255, so they are
+			// clamped for the gather
+			IntVector color;
+			if (gather) {
+				gray.max(0).min(255).intoArray(grays, 0);
+				color = IntVector.fromArray(INTS, mapColors, 0, grays, 0);
+			}
+			else {
+				color = gray.mul(0x010101);
+			}
+			VectorMask<Integer> isAbove = value.compare(VectorOperators.GE, high);
+			VectorMask<Integer> isBelow = value.compare(VectorOperators.LE, low);
+			color.blend(above, isAbove).blend(below, isBelow).intoArray(outPixels, index);
+		}
+
+		// the rest is looked up
+		for (; index < to; index++) {
+			outPixels[index] = colors[inPixels[index] & 0xffff];
+		}
+	}
+
+	@Override
+	public int minMax(short[] pixels, int from, int to) {
+		// flipping the sign bit maps unsigned to signed values in the same order
+		short flip = (short) 0x8000;
+		ShortVector min = ShortVector.broadcast(ALL_SHORTS, Short.MAX_VALUE);
+		ShortVector max = ShortVector.broadcast(ALL_SHORTS, Short.MIN_VALUE);
+		int index = from;
+		for (int end = from + ALL_SHORTS.loopBound(to - from); index < end; index += ALL_SHORTS.length()) {
+			ShortVector value = ShortVector.fromArray(ALL_SHORTS, pixels, index).lanewise(VectorOperators.XOR, flip);
+			min = min.min(value);
+			max = max.max(value);
+		}
+		int minValue = (min.reduceLanes(VectorOperators.MIN) ^ flip) & 0xffff;
+		int maxValue = (max.reduceLanes(VectorOperators.MAX) ^ flip) & 0xffff;
+		if (index == from) {
+			minValue = 65535;
+			maxValue = 0;
+		}
+		for (; index < to; index++) {
+			int value = pixels[index] & 0xffff;
+			minValue = Math.min(minValue, value);
+			maxValue = Math.max(maxValue, value);
+		}
+		return minValue << 16 | maxValue;
+	}
+}